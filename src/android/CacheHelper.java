@@ -0,0 +1,95 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * File name hashing and size trimming shared by the disk caches of the plugin.
+ */
+public class CacheHelper {
+
+    /**
+     * @param key       The key of a cache entry
+     * @return the SHA-1 of the key in hex, to name the file of the entry
+     */
+    public static String hash(String key) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(key.hashCode());
+        } catch (UnsupportedEncodingException e) {
+            return String.valueOf(key.hashCode());
+        }
+    }
+
+    /**
+     * @param bytes     A digest
+     * @return the digest in lowercase hex
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Deletes the least recently used files of a cache directory until they fit its size.
+     * Entries are marked as used by setting their modification time.
+     *
+     * @param dir       The cache directory
+     * @param maxBytes  The size the files may take
+     */
+    public static void trim(File dir, long maxBytes) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= maxBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (size <= maxBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+}
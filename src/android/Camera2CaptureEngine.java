@@ -0,0 +1,688 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.util.Size;
+import android.view.SurfaceHolder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Capture engine based on the camera2 API. Pictures are captured as JPEG into an ImageReader,
+ * whose buffers are handed to the listener without being copied.
+ *
+ * The camera is opened and used on a dedicated camera thread, the picture data is delivered
+ * on a second thread so that writing it never delays the camera.
+ *
+ * Before each picture, the focus is locked and the exposure is metered for the still capture,
+ * with the flash if the scene needs it and the camera has one.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class Camera2CaptureEngine implements CaptureEngine {
+
+    private static final String LOG_TAG = "Camera2CaptureEngine";
+
+    private static final int MAX_PREVIEW_WIDTH = 1920;
+    private static final int MAX_PREVIEW_HEIGHT = 1080;
+
+    // Steps of taking a picture
+    private static final int STATE_PREVIEW = 0;
+    private static final int STATE_WAITING_FOCUS = 1;
+    private static final int STATE_WAITING_PRECAPTURE = 2;
+    private static final int STATE_WAITING_EXPOSURE = 3;
+    private static final int STATE_CAPTURING = 4;
+
+    // The picture is taken anyway if the focus or the exposure doesn't settle within this time
+    private static final long PRECAPTURE_TIMEOUT = 1000;
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private HandlerThread cameraThread;
+    private Handler cameraHandler;
+    private HandlerThread imageThread;
+    private Handler imageHandler;
+
+    private Listener listener;
+    private volatile int targetWidth;
+    private volatile int targetHeight;
+    private volatile int jpegQuality;
+    private volatile int rotation;
+    private volatile boolean closed;
+
+    // Set on the camera thread before onCameraOpened
+    private volatile List<Point> pictureSizes;
+    private volatile List<Point> previewSizes;
+
+    // Chosen on the UI thread before the preview starts
+    private volatile Point pictureSize;
+    private volatile Size previewSize;
+
+    // Only used on the camera thread
+    private CameraDevice cameraDevice;
+    private CameraCaptureSession session;
+    private SurfaceHolder previewHolder;
+    private ImageReader imageReader;            // Its images are only used on the image thread
+    private boolean firstFrameReported;
+    private boolean hasAutoFocus;
+    private boolean hasFlash;
+    private CaptureRequest.Builder previewBuilder;
+    private int captureState = STATE_PREVIEW;
+    private boolean focusLocked;
+
+    public Camera2CaptureEngine(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Returns whether the back camera has more than legacy camera2 support. Legacy devices
+     * only emulate camera2 on top of the old API, so the legacy engine is faster there.
+     *
+     * @param context   The context
+     * @return true if this engine should be used
+     */
+    public static boolean isSupported(Context context) {
+        CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            String cameraId = findBackCamera(manager);
+            if (cameraId == null) {
+                return false;
+            }
+            Integer level = manager.getCameraCharacteristics(cameraId)
+                    .get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+            return level != null && level != CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+        } catch (CameraAccessException e) {
+            Log.d(LOG_TAG, "Unable to query the camera: " + e.getMessage());
+        } catch (RuntimeException e) {
+            Log.d(LOG_TAG, "Unable to query the camera: " + e.getMessage());
+        }
+        return false;
+    }
+
+    private static String findBackCamera(CameraManager manager) throws CameraAccessException {
+        String[] cameraIds = manager.getCameraIdList();
+        for (String cameraId : cameraIds) {
+            Integer facing = manager.getCameraCharacteristics(cameraId).get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
+                return cameraId;
+            }
+        }
+        return cameraIds.length > 0 ? cameraIds[0] : null;
+    }
+
+    public void setTargetSize(int width, int height) {
+        this.targetWidth = width;
+        this.targetHeight = height;
+    }
+
+    public void setJpegQuality(int quality) {
+        this.jpegQuality = quality;
+    }
+
+    public void open(Listener listener) {
+        this.listener = listener;
+
+        cameraThread = new HandlerThread("CameraThread");
+        cameraThread.start();
+        cameraHandler = new Handler(cameraThread.getLooper());
+        imageThread = new HandlerThread("CameraImageThread");
+        imageThread.start();
+        imageHandler = new Handler(imageThread.getLooper());
+
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                openOnCameraThread();
+            }
+        });
+    }
+
+    private void openOnCameraThread() {
+        if (closed) {
+            return;
+        }
+        CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            String cameraId = findBackCamera(manager);
+            if (cameraId == null) {
+                postError("Camera is not available");
+                return;
+            }
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
+            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            hasAutoFocus = hasAutoFocus(characteristics);
+            hasFlash = Boolean.TRUE.equals(characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE));
+
+            List<Point> jpegSizes = new ArrayList<Point>();
+            for (Size size : map.getOutputSizes(ImageFormat.JPEG)) {
+                jpegSizes.add(new Point(size.getWidth(), size.getHeight()));
+            }
+            // Surfaces larger than 1080p are not guaranteed to be supported for the preview
+            List<Point> surfaceSizes = new ArrayList<Point>();
+            for (Size size : map.getOutputSizes(SurfaceHolder.class)) {
+                if (size.getWidth() <= MAX_PREVIEW_WIDTH && size.getHeight() <= MAX_PREVIEW_HEIGHT) {
+                    surfaceSizes.add(new Point(size.getWidth(), size.getHeight()));
+                }
+            }
+            pictureSizes = jpegSizes;
+            previewSizes = surfaceSizes;
+
+            manager.openCamera(cameraId, stateCallback, cameraHandler);
+        } catch (CameraAccessException e) {
+            Log.d(LOG_TAG, "Unable to open the camera: " + e.getMessage());
+            postError("Camera is not available");
+        } catch (SecurityException e) {
+            Log.d(LOG_TAG, "Unable to open the camera: " + e.getMessage());
+            postError("Camera is not available");
+        }
+    }
+
+    private static boolean hasAutoFocus(CameraCharacteristics characteristics) {
+        Float minimumFocusDistance = characteristics.get(CameraCharacteristics.LENS_INFO_MINIMUM_FOCUS_DISTANCE);
+        if (minimumFocusDistance != null && minimumFocusDistance == 0) {
+            // Fixed focus
+            return false;
+        }
+        int[] modes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+        if (modes == null) {
+            return false;
+        }
+        for (int mode : modes) {
+            if (mode == CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Point choosePreviewSize(int maxWidth, int maxHeight) {
+        if (previewSizes == null) {
+            return null;
+        }
+        pictureSize = CameraSizes.choosePictureSize(pictureSizes, targetWidth, targetHeight);
+
+        // The preview is rotated to the display, so the view is the sensor turned sideways
+        Point view = CameraSizes.fitPreviewView(pictureSize, maxWidth, maxHeight);
+        Point chosen = CameraSizes.choosePreviewSize(previewSizes, view.y, view.x);
+        previewSize = new Size(chosen.x, chosen.y);
+
+        return new Point(chosen.y, chosen.x);
+    }
+
+    public void startPreview(final SurfaceHolder holder) {
+        if (previewSize == null) {
+            if (previewSizes == null) {
+                return;
+            }
+            choosePreviewSize(MAX_PREVIEW_HEIGHT, MAX_PREVIEW_WIDTH);
+        }
+
+        // The session needs a surface of a supported size, wait for surfaceChanged otherwise
+        holder.setFixedSize(previewSize.getWidth(), previewSize.getHeight());
+        Rect frame = holder.getSurfaceFrame();
+        if (frame.width() != previewSize.getWidth() || frame.height() != previewSize.getHeight()) {
+            return;
+        }
+
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                startPreviewOnCameraThread(holder);
+            }
+        });
+    }
+
+    private void startPreviewOnCameraThread(SurfaceHolder holder) {
+        if (cameraDevice == null) {
+            // The preview starts once the camera is open
+            previewHolder = holder;
+            return;
+        }
+
+        // The reader follows the picture size chosen for this capture
+        Point picture = pictureSize;
+        boolean readerChanged = imageReader == null || imageReader.getWidth() != picture.x ||
+                imageReader.getHeight() != picture.y;
+        if (readerChanged) {
+            closeImageReader();
+            // Room for every pending picture of a burst, and the one being written
+            imageReader = ImageReader.newInstance(picture.x, picture.y, ImageFormat.JPEG,
+                    MAX_PENDING_PICTURES + 1);
+            imageReader.setOnImageAvailableListener(onImageAvailable, imageHandler);
+        }
+
+        if (session != null && previewHolder == holder && !readerChanged) {
+            startRepeatingPreview();
+            return;
+        }
+
+        previewHolder = holder;
+        closeSession();
+        try {
+            cameraDevice.createCaptureSession(Arrays.asList(holder.getSurface(), imageReader.getSurface()),
+                    sessionCallback, cameraHandler);
+        } catch (CameraAccessException e) {
+            Log.d(LOG_TAG, "Error creating the capture session: " + e.getMessage());
+            postError("Error starting camera preview");
+        }
+    }
+
+    private void startRepeatingPreview() {
+        try {
+            previewBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            previewBuilder.addTarget(previewHolder.getSurface());
+            if (hasAutoFocus) {
+                previewBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            }
+            setAutoFlash(previewBuilder);
+            cameraHandler.removeCallbacks(precaptureTimeout);
+            captureState = STATE_PREVIEW;
+            if (focusLocked) {
+                // Continuous focus resumes once the lock of the previous picture is released
+                focusLocked = false;
+                previewBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_CANCEL);
+                session.capture(previewBuilder.build(), null, cameraHandler);
+                previewBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+            }
+            firstFrameReported = false;
+            session.setRepeatingRequest(previewBuilder.build(), previewCallback, cameraHandler);
+        } catch (CameraAccessException e) {
+            Log.d(LOG_TAG, "Error starting camera preview: " + e.getMessage());
+        } catch (IllegalStateException e) {
+            Log.d(LOG_TAG, "Error starting camera preview: " + e.getMessage());
+        }
+    }
+
+    public void stopPreview() {
+        if (cameraHandler == null) {
+            return;
+        }
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopRepeatingPreview();
+            }
+        });
+    }
+
+    private void stopRepeatingPreview() {
+        if (session == null) {
+            return;
+        }
+        try {
+            session.stopRepeating();
+        } catch (CameraAccessException e) {
+            // ignore: the preview is not running
+        } catch (IllegalStateException e) {
+            // ignore: the session is already closed
+        }
+    }
+
+    public void setRotation(int degrees) {
+        this.rotation = degrees;
+    }
+
+    public void takePicture() {
+        if (cameraHandler == null) {
+            return;
+        }
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (session == null || imageReader == null || previewBuilder == null ||
+                        captureState != STATE_PREVIEW) {
+                    return;
+                }
+                cameraHandler.postDelayed(precaptureTimeout, PRECAPTURE_TIMEOUT);
+                try {
+                    if (hasAutoFocus) {
+                        captureState = STATE_WAITING_FOCUS;
+                        focusLocked = true;
+                        previewBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_START);
+                        session.capture(previewBuilder.build(), previewCallback, cameraHandler);
+                        previewBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+                    } else {
+                        runPrecapture();
+                    }
+                } catch (CameraAccessException e) {
+                    onTakePictureError(e);
+                } catch (IllegalStateException e) {
+                    onTakePictureError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Has the camera meter the exposure, and fire the flash if needed, for the still capture.
+     */
+    private void runPrecapture() throws CameraAccessException {
+        captureState = STATE_WAITING_PRECAPTURE;
+        previewBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START);
+        session.capture(previewBuilder.build(), previewCallback, cameraHandler);
+        previewBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
+    }
+
+    /**
+     * Moves the capture sequence on as the focus and the exposure settle.
+     */
+    private void processPrecapture(CaptureResult result) {
+        try {
+            switch (captureState) {
+                case STATE_WAITING_FOCUS: {
+                    Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+                    if (afState == null || afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED ||
+                            afState == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED) {
+                        Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+                        if (aeState == null || aeState == CaptureResult.CONTROL_AE_STATE_CONVERGED) {
+                            captureStillPicture();
+                        } else {
+                            runPrecapture();
+                        }
+                    }
+                    break;
+                }
+                case STATE_WAITING_PRECAPTURE: {
+                    Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+                    if (aeState == null || aeState == CaptureResult.CONTROL_AE_STATE_PRECAPTURE ||
+                            aeState == CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED) {
+                        captureState = STATE_WAITING_EXPOSURE;
+                    }
+                    break;
+                }
+                case STATE_WAITING_EXPOSURE: {
+                    Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+                    if (aeState == null || aeState != CaptureResult.CONTROL_AE_STATE_PRECAPTURE) {
+                        captureStillPicture();
+                    }
+                    break;
+                }
+                default:
+                    break;
+            }
+        } catch (CameraAccessException e) {
+            onTakePictureError(e);
+        } catch (IllegalStateException e) {
+            onTakePictureError(e);
+        }
+    }
+
+    private final Runnable precaptureTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (captureState == STATE_PREVIEW || captureState == STATE_CAPTURING) {
+                return;
+            }
+            Log.d(LOG_TAG, "Focus or exposure didn't settle, taking the picture anyway");
+            try {
+                captureStillPicture();
+            } catch (CameraAccessException e) {
+                onTakePictureError(e);
+            } catch (IllegalStateException e) {
+                onTakePictureError(e);
+            }
+        }
+    };
+
+    private void captureStillPicture() throws CameraAccessException {
+        cameraHandler.removeCallbacks(precaptureTimeout);
+        if (session == null || imageReader == null) {
+            captureState = STATE_PREVIEW;
+            return;
+        }
+        captureState = STATE_CAPTURING;
+        CaptureRequest.Builder builder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+        builder.addTarget(imageReader.getSurface());
+        if (hasAutoFocus) {
+            builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+        }
+        setAutoFlash(builder);
+        builder.set(CaptureRequest.JPEG_ORIENTATION, rotation);
+        if (jpegQuality > 0) {
+            builder.set(CaptureRequest.JPEG_QUALITY, (byte) jpegQuality);
+        }
+        session.capture(builder.build(), captureCallback, cameraHandler);
+    }
+
+    /**
+     * Lets the exposure metering fire the flash when the scene is too dark. The preview and the
+     * still capture must use the same mode, or the precapture sequence meters without the flash.
+     */
+    private void setAutoFlash(CaptureRequest.Builder builder) {
+        if (hasFlash) {
+            builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+        }
+    }
+
+    private void onTakePictureError(Exception e) {
+        cameraHandler.removeCallbacks(precaptureTimeout);
+        captureState = STATE_PREVIEW;
+        Log.d(LOG_TAG, "Error taking picture: " + e.getMessage());
+        postError("Error taking picture");
+    }
+
+    public void close() {
+        closed = true;
+        if (cameraHandler == null) {
+            return;
+        }
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeSession();
+                if (cameraDevice != null) {
+                    cameraDevice.close();
+                    cameraDevice = null;
+                }
+                closeImageReader();
+                imageThread.quitSafely();
+            }
+        });
+        cameraThread.quitSafely();
+    }
+
+    private void closeImageReader() {
+        if (imageReader == null) {
+            return;
+        }
+        // Closing the reader invalidates its images, so it's done on the image thread
+        final ImageReader reader = imageReader;
+        imageReader = null;
+        imageHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                reader.close();
+            }
+        });
+    }
+
+    private void closeSession() {
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+    }
+
+    private final CameraDevice.StateCallback stateCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(CameraDevice camera) {
+            if (closed) {
+                camera.close();
+                return;
+            }
+            cameraDevice = camera;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!closed) {
+                        listener.onCameraOpened();
+                    }
+                }
+            });
+            if (previewHolder != null) {
+                startPreviewOnCameraThread(previewHolder);
+            }
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice camera) {
+            camera.close();
+            cameraDevice = null;
+            session = null;
+            // Another client took the camera over
+            postDisconnected("Camera was disconnected");
+        }
+
+        @Override
+        public void onError(CameraDevice camera, int error) {
+            camera.close();
+            cameraDevice = null;
+            session = null;
+            postDisconnected("Camera error " + error);
+        }
+    };
+
+    private final CameraCaptureSession.StateCallback sessionCallback = new CameraCaptureSession.StateCallback() {
+        @Override
+        public void onConfigured(CameraCaptureSession configuredSession) {
+            if (cameraDevice == null) {
+                configuredSession.close();
+                return;
+            }
+            session = configuredSession;
+            startRepeatingPreview();
+        }
+
+        @Override
+        public void onConfigureFailed(CameraCaptureSession failedSession) {
+            postError("Error starting camera preview");
+        }
+    };
+
+    private final CameraCaptureSession.CaptureCallback previewCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureProgressed(CameraCaptureSession captureSession, CaptureRequest request, CaptureResult partialResult) {
+            processPrecapture(partialResult);
+        }
+
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession captureSession, CaptureRequest request, TotalCaptureResult result) {
+            processPrecapture(result);
+            if (firstFrameReported) {
+                return;
+            }
+            firstFrameReported = true;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!closed) {
+                        listener.onPreviewStarted();
+                    }
+                }
+            });
+        }
+    };
+
+    private final CameraCaptureSession.CaptureCallback captureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureStarted(CameraCaptureSession captureSession, CaptureRequest request, long timestamp, long frameNumber) {
+            // Keep the last frame on screen while the picture is reviewed
+            stopRepeatingPreview();
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!closed) {
+                        listener.onShutter();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onCaptureFailed(CameraCaptureSession captureSession, CaptureRequest request, CaptureFailure failure) {
+            captureState = STATE_PREVIEW;
+            postError("Error taking picture");
+        }
+    };
+
+    private final ImageReader.OnImageAvailableListener onImageAvailable = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image = reader.acquireNextImage();
+            if (image == null) {
+                return;
+            }
+            try {
+                ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+                listener.onPictureData(buffer);
+            } finally {
+                image.close();
+            }
+        }
+    };
+
+    private void postError(final String message) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!closed) {
+                    listener.onCameraError(message);
+                }
+            }
+        });
+    }
+
+    private void postDisconnected(final String message) {
+        cameraHandler.removeCallbacks(precaptureTimeout);
+        captureState = STATE_PREVIEW;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!closed) {
+                    listener.onCameraDisconnected(message);
+                }
+            }
+        });
+    }
+}
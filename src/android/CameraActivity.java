@@ -3,14 +3,12 @@ package org.apache.cordova.camera;
 import android.app.Activity;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
-import android.hardware.Camera;
-import android.hardware.Camera.PictureCallback;
+import android.graphics.Point;
 import android.hardware.SensorManager;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.OrientationEventListener;
@@ -24,37 +22,87 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import fr.indaclouds.retake_it_app.R;
 
 public class CameraActivity extends Activity {
 
-    private Camera mCamera;
+    private CaptureEngine mEngine;
     private CameraPreview mPreview;
     private OrientationEventListener orientationListener;
 
     private static final String LOG_TAG = "CameraActivity";
 
+    private static final int ORIENTATION_HYSTERESIS = 10;   // Degrees past a boundary before rotating
+
+    // Pictures of a burst waiting to be written, each holds a full JPEG in memory
+    private static final int MAX_PENDING_PICTURES = CaptureEngine.MAX_PENDING_PICTURES;
+
     public static final int MEDIA_TYPE_IMAGE = 1;
 
+    // The camera was lost before a picture was taken
+    public static final int RESULT_CAMERA_ERROR = Activity.RESULT_FIRST_USER;
+
     private static Uri imageUri;
 
     private ImageButton captureButton;
     private ImageButton retakeButton;
     private ImageButton usePhotoButton;
 
+    private int picturesTaken;
+    private int picturesWritten;            // Pictures are written in the order they are taken
+    private boolean pictureDiscarded;       // Was the last picture discarded by a retake
+    private boolean finishWhenWritten;
+    private boolean pictureReturned;        // Has a picture been set as the result
+    private boolean burst;                  // Are several pictures taken before finishing
+    private String captureKey;              // Hands the picture over in memory instead of a file when set
+    private final AtomicInteger pictureFiles = new AtomicInteger();    // Files of a burst, numbered on the data thread
+    private final ArrayList<String> picturePaths = new ArrayList<String>();    // Written pictures of a burst
+    private int jpegQuality;
+    private int previewWidth;
+    private int previewHeight;
+    private String optionalImageUri;
+    private float alpha;
+    private String engineType;
+    private int targetWidth;
+    private int targetHeight;
+    private int pictureRotation = -1;       // Applied again when the camera is reopened
+    private boolean shutterPending;         // Was a picture requested whose shutter has not come yet
+    private boolean releaseWhenWritten;     // Was the activity stopped while a picture was captured
+
+    private long createTime;                // Monotonic time the activity was created at
+    private final CaptureTimings timings = new CaptureTimings();
+    private boolean preparedCamera;         // Was the camera opened ahead by prepareCamera
+    private boolean cameraOpened;           // Has the current engine opened its camera
+    private boolean firstFrameReported;
+    private int lastDeviceRotation = -1;    // Only changes on a real transition between quarter turns
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        setTheme(android.R.style.Theme_Translucent_NoTitleBar_Fullscreen);
-        setContentView(R.layout.activity_camera);
+        createTime = SystemClock.elapsedRealtime();
+        timings.mark(CaptureTimings.ACTIVITY_CREATED);
 
         Intent intent = getIntent();
-        String optionalImageUri = intent.getStringExtra(CameraLauncher.OPTIONAL_IMAGE_URI);
+        optionalImageUri = intent.getStringExtra(CameraLauncher.OPTIONAL_IMAGE_URI);
         imageUri = Uri.parse(intent.getStringExtra(CameraLauncher.IMAGE_URI));
-        float alpha = Float.parseFloat(intent.getStringExtra(CameraLauncher.ALPHA)) / 100;
+        alpha = Float.parseFloat(intent.getStringExtra(CameraLauncher.ALPHA)) / 100;
+        jpegQuality = intent.getIntExtra(CameraLauncher.JPEG_QUALITY, -1);
+        burst = intent.getBooleanExtra(CameraLauncher.BURST, false);
+        captureKey = intent.getStringExtra(CameraLauncher.CAPTURE_KEY);
+        engineType = intent.getStringExtra(CameraLauncher.CAPTURE_ENGINE);
+        targetWidth = intent.getIntExtra(CameraLauncher.TARGET_WIDTH, -1);
+        targetHeight = intent.getIntExtra(CameraLauncher.TARGET_HEIGHT, -1);
 
-        setCameraPreview();
+        // The camera opens on its own thread while the views are inflated
+        openCamera();
+
+        setTheme(android.R.style.Theme_Translucent_NoTitleBar_Fullscreen);
+        setContentView(R.layout.activity_camera);
 
         captureButton = (ImageButton) findViewById(R.id.capture_button);
         captureButton.setRotation(270);
@@ -63,7 +111,16 @@ public class CameraActivity extends Activity {
                 new View.OnClickListener() {
                     @Override
                     public void onClick(View v) {
-                        mCamera.takePicture(null, null, mPicture);
+                        if (mEngine == null) {
+                            return;
+                        }
+                        if (burst) {
+                            // Taken again once the preview is back
+                            captureButton.setEnabled(false);
+                        }
+                        timings.mark(CaptureTimings.SHUTTER_TAP);
+                        shutterPending = true;
+                        mEngine.takePicture();
                     }
                 }
         );
@@ -78,7 +135,7 @@ public class CameraActivity extends Activity {
                 new View.OnClickListener() {
                     @Override
                     public void onClick(View v) {
-                        recreate();
+                        retake();
                     }
                 }
         );
@@ -87,7 +144,15 @@ public class CameraActivity extends Activity {
                 new View.OnClickListener() {
                     @Override
                     public void onClick(View v) {
-                        finish();
+                        if (picturesWritten < picturesTaken) {
+                            // Finish as soon as the picture is on disk
+                            finishWhenWritten = true;
+                            captureButton.setEnabled(false);
+                            retakeButton.setEnabled(false);
+                            usePhotoButton.setEnabled(false);
+                        } else {
+                            finish();
+                        }
                     }
                 }
         );
@@ -95,149 +160,383 @@ public class CameraActivity extends Activity {
         orientationListener = new OrientationEventListener(this, SensorManager.SENSOR_DELAY_UI) {
             @Override
             public void onOrientationChanged(int orientation) {
-                if (orientation >= 315 && orientation <= 360 || orientation >= 0 && orientation <= 45) {
+                if (orientation == ORIENTATION_UNKNOWN) {
+                    // The device is lying flat, keep the last rotation
+                    return;
+                }
+                int deviceRotation = quantizeOrientation(orientation);
+                if (deviceRotation == lastDeviceRotation) {
+                    return;
+                }
+                lastDeviceRotation = deviceRotation;
+
+                if (deviceRotation == 0) {
                     captureButton.setRotation(0);
                     retakeButton.setRotation(0);
                     usePhotoButton.setRotation(0);
-                    setCameraRotation(90);
-                }
-                else if (orientation >= 225 && orientation < 315) {
-                    setCameraRotation(0);
-                }
-                else if (orientation >= 135 && orientation < 225) {
-                    setCameraRotation(270);
-                }
-                else {
-                    setCameraRotation(180);
                 }
+                // The sensor is mounted landscape, the picture is rotated a quarter turn further
+                setCameraRotation((deviceRotation + 90) % 360);
             }
         };
+    }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        releaseWhenWritten = false;
+        if (mEngine == null) {
+            // The camera was released while the activity was stopped
+            openCamera();
+        }
         orientationListener.enable();
-
-        setBackgroundPicture(optionalImageUri, alpha);
     }
 
     @Override
     protected void onStop() {
         super.onStop();
         orientationListener.disable();
-        releaseCamera();
+        // Other apps can use the camera while this one is stopped, a picture being
+        // captured is written first
+        if (shutterPending || picturesWritten < picturesTaken) {
+            releaseWhenWritten = true;
+        } else {
+            releaseCamera();
+        }
     }
 
-    private void setCameraPreview() {
-        mCamera = getCameraInstance();
-
-        Camera.Parameters parameters = mCamera.getParameters();
-
-        if (parameters.getSupportedFocusModes().contains(
-                Camera.Parameters.FOCUS_MODE_AUTO)) {
-            parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
+    private void openCamera() {
+        cameraOpened = false;
+        mEngine = CaptureEngines.take(engineType, mEngineListener);
+        preparedCamera = mEngine != null;
+        if (!preparedCamera) {
+            mEngine = CaptureEngines.create(this, engineType);
         }
+        mEngine.setTargetSize(targetWidth, targetHeight);
+        mEngine.setJpegQuality(jpegQuality);
+        if (pictureRotation >= 0) {
+            mEngine.setRotation(pictureRotation);
+        }
+        if (!preparedCamera) {
+            mEngine.open(mEngineListener);
+        }
+    }
 
-        mCamera.setParameters(parameters);
-        mCamera.setDisplayOrientation(90);
-
+    /**
+     * Lays out the preview once the camera is open, the preview starts as soon as
+     * its surface is created.
+     */
+    private void setCameraPreview() {
         CameraPreview preview = (CameraPreview) findViewById(R.id.camera_preview);
-        preview.init(mCamera);
 
         DisplayMetrics displaymetrics = new DisplayMetrics();
         getWindowManager().getDefaultDisplay().getMetrics(displaymetrics);
 
         int width = displaymetrics.widthPixels;
 
-        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(width, (int) (width * 1.33));
+        // The view follows the aspect ratio of the preview, so it is not stretched
+        Point previewSize = mEngine.choosePreviewSize(width, displaymetrics.heightPixels);
+        if (previewSize != null) {
+            previewWidth = width;
+            previewHeight = width * previewSize.y / previewSize.x;
+            if (previewHeight > displaymetrics.heightPixels) {
+                previewHeight = displaymetrics.heightPixels;
+                previewWidth = previewHeight * previewSize.x / previewSize.y;
+            }
+        } else {
+            previewWidth = width;
+            previewHeight = (int) (width * 1.33);
+        }
+
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(previewWidth, previewHeight);
         preview.setLayoutParams(params);
+        preview.init(mEngine);
+        mPreview = preview;
     }
 
-    private void setCameraRotation(int rotation) {
-        Camera.Parameters parameters = mCamera.getParameters();
-
-        parameters.setRotation(rotation);
-
-        mCamera.setParameters(parameters);
+    /**
+     * Quantizes the orientation of the device to the closest quarter turn. The current
+     * quarter turn is kept until the device is clearly past its boundary, so holding it
+     * near 45 degrees doesn't flip the rotation back and forth.
+     *
+     * @param orientation   The orientation of the device in degrees, 0-359
+     * @return 0, 90, 180 or 270
+     */
+    private int quantizeOrientation(int orientation) {
+        if (lastDeviceRotation >= 0) {
+            int distance = Math.abs(orientation - lastDeviceRotation) % 360;
+            if (Math.min(distance, 360 - distance) <= 45 + ORIENTATION_HYSTERESIS) {
+                return lastDeviceRotation;
+            }
+        }
+        return (orientation + 45) / 90 * 90 % 360;
     }
 
-    private void setBackgroundPicture(String imageUri, float alpha) {
-        File imgFile = new  File(imageUri);
-
-        if (imgFile.exists()){
-
-            Bitmap myBitmap = BitmapFactory.decodeFile(imgFile.getAbsolutePath());
-
-            ImageView myImage = (ImageView) findViewById(R.id.background_picture);
-
-            DisplayMetrics displaymetrics = new DisplayMetrics();
-            getWindowManager().getDefaultDisplay().getMetrics(displaymetrics);
-
-            int width = displaymetrics.widthPixels;
+    private void setCameraRotation(int rotation) {
+        pictureRotation = rotation;
+        if (mEngine != null) {
+            mEngine.setRotation(rotation);
+        }
+    }
 
-            if (myBitmap.getWidth() > myBitmap.getHeight()) {
-                Bitmap scaledBitmap = Bitmap.createScaledBitmap(myBitmap, (int) (width * 1.33), width, true);
+    /**
+     * Shows the reference picture over the preview once it is loaded, the preview is
+     * not held up by decoding it.
+     */
+    private void setBackgroundPicture(String imageUri, final float alpha) {
+        if (imageUri == null) {
+            return;
+        }
+        OverlayCache.load(this, imageUri, previewWidth, previewHeight, new OverlayCache.Callback() {
+            @Override
+            public void onOverlayLoaded(Bitmap overlay) {
+                if (overlay == null || isFinishing()) {
+                    return;
+                }
+                ImageView myImage = (ImageView) findViewById(R.id.background_picture);
+                myImage.setImageBitmap(overlay);
+                myImage.setAlpha(alpha);
 
-                Matrix matrix = new Matrix();
-                matrix.postRotate(90);
+                // The overlay covers the preview exactly
+                FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(previewWidth, previewHeight);
 
-                myBitmap = Bitmap.createBitmap(scaledBitmap , 0, 0, scaledBitmap.getWidth(), scaledBitmap.getHeight(), matrix, true);
+                myImage.setLayoutParams(params);
             }
+        });
+    }
 
-            myImage.setImageBitmap(myBitmap);
-            myImage.setAlpha(alpha);
-
-            FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(width, (int) (width * 1.33));
-
-            myImage.setLayoutParams(params);
+    private void releaseCamera(){
+        releaseWhenWritten = false;
+        if (mPreview != null) {
+            mPreview.init(null);
+        }
+        if (mEngine != null){
+            mEngine.close();
+            mEngine = null;
+        }
+    }
 
+    /**
+     * Releases the camera of a stopped activity once its last picture is written.
+     */
+    private void releaseCameraIfWritten() {
+        if (releaseWhenWritten && !shutterPending && picturesWritten == picturesTaken) {
+            releaseCamera();
         }
     }
 
-    /** A safe way to get an instance of the Camera object. */
-    public Camera getCameraInstance(){
-        Camera c = null;
-        try {
-            c = Camera.open();
+    private CaptureEngine.Listener mEngineListener = new CaptureEngine.Listener() {
+        @Override
+        public void onCameraOpened() {
+            if (mEngine == null) {
+                return;
+            }
+            cameraOpened = true;
+            timings.mark(CaptureTimings.CAMERA_OPENED);
+            boolean reopened = mPreview != null;
+            setCameraPreview();
+            if (!reopened) {
+                setBackgroundPicture(optionalImageUri, alpha);
+            }
         }
-        catch (Exception e){
-            Log.d(LOG_TAG, String.valueOf(e));
-            // Camera is not available (in use or does not exist)
+
+        @Override
+        public void onPreviewStarted() {
+            if (!firstFrameReported) {
+                firstFrameReported = true;
+                timings.mark(CaptureTimings.FIRST_FRAME);
+                Log.d(LOG_TAG, "First preview frame " + (SystemClock.elapsedRealtime() - createTime) +
+                        " ms after launch" + (preparedCamera ? " with a prepared camera" : ""));
+            }
         }
-        return c;
-    }
 
-    private void releaseCamera(){
-        if (mCamera != null){
-            mCamera.release();
-            mCamera = null;
+        @Override
+        public void onCameraError(String message) {
+            Log.d(LOG_TAG, message);
+            if (!cameraOpened) {
+                // Nothing can be taken without a camera
+                finishWithCameraError();
+                return;
+            }
+            shutterPending = false;
+            if (picturesWritten < picturesTaken) {
+                onPictureWritten(null);
+            }
+            if (burst) {
+                captureButton.setEnabled(picturesTaken - picturesWritten < MAX_PENDING_PICTURES);
+            }
+            releaseCameraIfWritten();
         }
-    }
 
-    private PictureCallback mPicture = new PictureCallback() {
         @Override
-        public void onPictureTaken(byte[] data, Camera camera) {
+        public void onCameraDisconnected(String message) {
+            Log.d(LOG_TAG, message);
+            finishWithCameraError();
+        }
+
+        @Override
+        public void onShutter() {
+            timings.mark(CaptureTimings.SHUTTER);
+            shutterPending = false;
+            picturesTaken++;
+            pictureDiscarded = false;
+            if (burst) {
+                // Only the shutter time is spent per picture, the data is written in the background
+                usePhotoButton.setVisibility(View.VISIBLE);
+                captureButton.setEnabled(picturesTaken - picturesWritten < MAX_PENDING_PICTURES);
+                if (mEngine != null && mPreview != null) {
+                    mEngine.startPreview(mPreview.getHolder());
+                }
+                return;
+            }
             retakeButton.setVisibility(View.VISIBLE);
             usePhotoButton.setVisibility(View.VISIBLE);
+        }
 
-            mCamera.stopPreview();
+        @Override
+        public void onPictureData(ByteBuffer jpeg) {
+            timings.mark(CaptureTimings.PICTURE_TAKEN);
+            if (captureKey != null) {
+                // The buffer is only valid during the call
+                byte[] data = new byte[jpeg.remaining()];
+                jpeg.get(data);
+                CaptureBuffers.put(captureKey, data);
+                timings.mark(CaptureTimings.PICTURE_WRITTEN);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPictureWritten(captureKey);
+                    }
+                });
+                return;
+            }
 
-            File pictureFile = getOutputMediaFile(MEDIA_TYPE_IMAGE);
+            File pictureFile = burst ? getBurstMediaFile(pictureFiles.incrementAndGet()) :
+                    getOutputMediaFile(MEDIA_TYPE_IMAGE);
 
+            final String path;
             if (pictureFile == null){
                 Log.d(LOG_TAG, "Error creating media file, check storage permissions");
-                return;
+                path = null;
+            } else {
+                path = writePicture(pictureFile, jpeg) ? pictureFile.getAbsolutePath() : null;
+                timings.mark(CaptureTimings.PICTURE_WRITTEN);
             }
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    onPictureWritten(path);
+                }
+            });
+        }
+    };
+
+    /**
+     * Finishes once the camera is lost or could not be opened. The pictures already
+     * taken are still returned, otherwise the capture fails.
+     */
+    private void finishWithCameraError() {
+        if (!pictureReturned) {
+            setResult(RESULT_CAMERA_ERROR);
+        }
+        captureButton.setEnabled(false);
+        if (picturesWritten < picturesTaken) {
+            finishWhenWritten = true;
+        } else {
+            finish();
+        }
+    }
 
-            try {
-                FileOutputStream fos = new FileOutputStream(pictureFile);
-                fos.write(data);
-                fos.close();
-                setResult(Activity.RESULT_OK);
-            } catch (FileNotFoundException e) {
-                Log.d(LOG_TAG, "File not found: " + e.getMessage());
-            } catch (IOException e) {
-                Log.d(LOG_TAG, "Error accessing file: " + e.getMessage());
+    /**
+     * Writes the JPEG data to the given file. Runs on the thread delivering the picture data.
+     *
+     * @param pictureFile   The file to write to
+     * @param buffer        The JPEG data delivered by the capture engine
+     * @return true if the whole picture was written
+     */
+    private static boolean writePicture(File pictureFile, ByteBuffer buffer) {
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(pictureFile);
+            FileChannel channel = fos.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            return true;
+        } catch (FileNotFoundException e) {
+            Log.d(LOG_TAG, "File not found: " + e.getMessage());
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Error accessing file: " + e.getMessage());
+        } finally {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException e) {
+                    Log.d(LOG_TAG, "Exception while closing file output stream.");
+                }
             }
         }
-    };
+        return false;
+    }
+
+    /**
+     * @param path      The file the picture was written to, or the capture key when it is handed
+     *                  over in memory, null if it could not be written
+     */
+    private void onPictureWritten(String path) {
+        picturesWritten++;
+        if (burst) {
+            onBurstPictureWritten(path);
+        }
+        // Only the last picture is returned, unless it was retaken
+        else if (path != null && picturesWritten == picturesTaken && !pictureDiscarded) {
+            // Tells the launcher the picture is already encoded at the requested quality
+            Intent result = new Intent();
+            result.putExtra(CameraLauncher.JPEG_QUALITY, jpegQuality);
+            result.putExtra(CameraLauncher.TIMINGS, timings.toBundle());
+            setResult(Activity.RESULT_OK, result);
+            pictureReturned = true;
+        }
+        if (finishWhenWritten && picturesWritten == picturesTaken) {
+            finish();
+        }
+        releaseCameraIfWritten();
+    }
+
+    /**
+     * Returns all the pictures of the burst written so far, and lets another picture be
+     * taken now that its data is out of memory.
+     */
+    private void onBurstPictureWritten(String path) {
+        if (path != null) {
+            picturePaths.add(path);
+
+            Intent result = new Intent();
+            result.putExtra(CameraLauncher.JPEG_QUALITY, jpegQuality);
+            result.putStringArrayListExtra(CameraLauncher.PICTURE_PATHS, picturePaths);
+            result.putExtra(CameraLauncher.TIMINGS, timings.toBundle());
+            setResult(Activity.RESULT_OK, result);
+            pictureReturned = true;
+        }
+        if (!finishWhenWritten && picturesTaken - picturesWritten < MAX_PENDING_PICTURES) {
+            captureButton.setEnabled(true);
+        }
+    }
+
+    /**
+     * Goes back to the preview of the open camera. The camera parameters and the overlay
+     * are kept, a write of the previous picture may still complete in the background.
+     */
+    private void retake() {
+        retakeButton.setVisibility(View.INVISIBLE);
+        usePhotoButton.setVisibility(View.INVISIBLE);
+        pictureDiscarded = true;
+        setResult(Activity.RESULT_CANCELED);
+        pictureReturned = false;
+        if (mEngine != null && mPreview != null) {
+            mEngine.startPreview(mPreview.getHolder());
+        }
+    }
 
     /** Create a file Uri for saving an image or video */
     private static Uri getOutputMediaFileUri(int type){
@@ -253,6 +552,19 @@ public class CameraActivity extends Activity {
         return false;
     }
 
+    /** Create a File for saving a picture of a burst, numbered from 1 */
+    private static File getBurstMediaFile(int number) {
+        File file = getOutputMediaFile(MEDIA_TYPE_IMAGE);
+        if (file == null) {
+            return null;
+        }
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(file.getParentFile(), dot > 0 ?
+                name.substring(0, dot) + "-" + number + name.substring(dot) :
+                name + "-" + number);
+    }
+
     /** Create a File for saving an image or video */
     private static File getOutputMediaFile(int type){
         if (!isExternalStorageWritable()) {
@@ -18,16 +18,22 @@
 */
 package org.apache.cordova.camera;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.cordova.BuildHelper;
 import org.apache.cordova.CallbackContext;
@@ -37,13 +43,16 @@ import org.apache.cordova.PermissionHelper;
 import org.apache.cordova.PluginResult;
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 
 import android.Manifest;
 import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.ActivityNotFoundException;
+import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.content.Intent;
 import android.database.Cursor;
 import android.graphics.Bitmap;
@@ -54,13 +63,19 @@ import android.media.ExifInterface;
 import android.media.MediaScannerConnection;
 import android.media.MediaScannerConnection.MediaScannerConnectionClient;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.ParcelFileDescriptor;
 import android.provider.DocumentsContract;
 import android.provider.MediaStore;
 import android.provider.OpenableColumns;
 import android.support.v4.content.FileProvider;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 import android.util.Base64;
+import android.util.Base64OutputStream;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 
@@ -75,6 +90,7 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
     private static final int FILE_URI = 1;              // Return file uri (content://media/external/images/media/2 for Android)
     private static final int NATIVE_URI = 2;                    // On Android, this is the same as FILE_URI
     private static final int ALL_URI = 3;
+    private static final int ARRAY_BUFFER = 4;          // Return the encoded bytes as an ArrayBuffer
 
     private static final int PHOTOLIBRARY = 0;          // Choose image from picture library (same as SAVEDPHOTOALBUM for Android)
     private static final int CAMERA = 1;                // Take picture from camera
@@ -97,38 +113,69 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
     public static final String OPTIONAL_IMAGE_URI = "OPTIONAL_IMAGE_URI";
     public static final String IMAGE_URI = "IMAGE_URI";
     public static final String ALPHA = "ALPHA";
+    public static final String CAPTURE_ENGINE = "CAPTURE_ENGINE";
+    public static final String TARGET_WIDTH = "TARGET_WIDTH";
+    public static final String TARGET_HEIGHT = "TARGET_HEIGHT";
+    public static final String JPEG_QUALITY = "JPEG_QUALITY";
+    public static final String BURST = "BURST";
+    public static final String PICTURE_PATHS = "PICTURE_PATHS";
+    public static final String CAPTURE_KEY = "CAPTURE_KEY";
+    public static final String TIMINGS = "TIMINGS";
 
     private static final String LOG_TAG = "CameraLauncher";
 
+    private static final int DEFAULT_CACHE_MAX_SIZE = 100;     // MB
+    private static final int DEFAULT_CACHE_MAX_FILES = 100;
+
+    private static final String TEMP_DIR = "camera-temp";
+    private static final String RESULT_CACHE_DIR = "camera-results";
+    private static final int DEFAULT_RESULT_CACHE_SIZE = 50;   // MB
+
     //Where did this come from?
     private static final int CROP_CAMERA = 100;
 
-    private int mQuality;                   // Compression quality hint (0-100: 0=low quality & high compression, 100=compress of max quality)
-    private int targetWidth;                // desired width of the image
-    private int targetHeight;               // desired height of the image
-    private CordovaUri imageUri;            // Uri of captured image
-    private int encodingType;               // Type of encoding to use
-    private int mediaType;                  // What type of media to retrieve
-    private int destType;                   // Source type (needs to be saved for the permission handling)
-    private int srcType;                    // Destination type (needs to be saved for permission handling)
-    private boolean saveToPhotoAlbum;       // Should the picture be saved to the device's photo album
-    private boolean correctOrientation;     // Should the pictures orientation be corrected
-    private boolean orientationCorrected;   // Has the picture's orientation been corrected
-    private boolean allowEdit;              // Should we allow the user to crop the image.
+    private PictureRequest request;         // The last request, each result is processed with its own
+    private TempCache tempCache;            // Keeps the temporary directory within its budget
+    private ResultCache resultCache;        // Keeps the pictures produced from gallery picks
 
     protected final static String[] permissions = { Manifest.permission.CAMERA, Manifest.permission.READ_EXTERNAL_STORAGE };
 
-    public CallbackContext callbackContext;
-    private int numPics;
-
     private MediaScannerConnection conn;    // Used to update gallery app with newly-written files
     private Uri scanMe;                     // Uri of image to be added to content store
-    private Uri croppedUri;
-    private ExifHelper exifData;            // Exif data from source
     private String applicationId;
 
-    private String optionalImageUri;
-    private String alpha;
+    private ExecutorService processingExecutor;     // Processes results off the UI thread, one at a time
+
+    /**
+     * The options and the state of one takePicture call. A new request is made for each call,
+     * and its result is processed with it, so a later call can't change how an earlier result
+     * is processed nor where it is sent.
+     */
+    private static class PictureRequest {
+        CallbackContext callbackContext;
+        int mQuality;                       // Compression quality hint (0-100: 0=low quality & high compression, 100=compress of max quality)
+        int targetWidth;                    // desired width of the image
+        int targetHeight;                   // desired height of the image
+        CordovaUri imageUri;                // Uri of captured image
+        int encodingType;                   // Type of encoding to use
+        int mediaType;                      // What type of media to retrieve
+        int destType;                       // Source type (needs to be saved for the permission handling)
+        int srcType;                        // Destination type (needs to be saved for permission handling)
+        boolean saveToPhotoAlbum;           // Should the picture be saved to the device's photo album
+        boolean correctOrientation;         // Should the pictures orientation be corrected
+        boolean orientationCorrected;       // Has the picture's orientation been corrected
+        boolean allowEdit;                  // Should we allow the user to crop the image.
+        boolean losslessOrientation;        // Should orientation be left to the EXIF data instead of re-encoding
+        int dataChunkSize;                  // Maximum length of a DATA_URL message to JavaScript, 0 to send it at once
+        boolean burst;                      // Should several pictures be taken and returned at once
+        String captureKey;                  // Key of the picture handed over in memory, null if it is written to a file
+        CaptureTimings timings;             // Stages of the capture
+        long captureStartTime;              // Seconds, the images added since are checked for duplicates
+        Uri croppedUri;
+        ExifHelper exifData;                // Exif data from source
+        String optionalImageUri;
+        String alpha;
+    }
 
     /**
      * Executes the request and returns PluginResult.
@@ -139,7 +186,17 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      * @return                  A PluginResult object with a status and message.
      */
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
-        this.callbackContext = callbackContext;
+        // These don't start a new request
+        if (action.equals("getCaptureTimings")) {
+            callbackContext.success(CaptureTimings.query());
+            return true;
+        } else if (action.equals("cleanup")) {
+            this.cleanupTempDirectory(callbackContext);
+            return true;
+        } else if (action.equals("prepareCamera")) {
+            this.prepareCamera(callbackContext);
+            return true;
+        }
         //Adding an API to CoreAndroid to get the BuildConfigValue
         //This allows us to not make this a breaking change to embedding
         this.applicationId = (String) BuildHelper.getBuildConfigValue(cordova.getActivity(), "APPLICATION_ID");
@@ -147,56 +204,71 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
 
 
         if (action.equals("takePicture")) {
-            this.srcType = CAMERA;
-            this.destType = FILE_URI;
-            this.saveToPhotoAlbum = false;
-            this.targetHeight = 0;
-            this.targetWidth = 0;
-            this.encodingType = JPEG;
-            this.mediaType = PICTURE;
-            this.mQuality = 50;
+            PictureRequest request = new PictureRequest();
+            request.callbackContext = callbackContext;
+            request.losslessOrientation = preferences.getBoolean("CameraLosslessOrientation", false);
+            request.srcType = CAMERA;
+            request.destType = FILE_URI;
+            request.saveToPhotoAlbum = false;
+            request.targetHeight = 0;
+            request.targetWidth = 0;
+            request.encodingType = JPEG;
+            request.mediaType = PICTURE;
+            request.mQuality = 50;
 
             //Take the values from the arguments if they're not already defined (this is tricky)
-            this.destType = args.getInt(1);
-            this.srcType = args.getInt(2);
-            this.mQuality = args.getInt(0);
-            this.targetWidth = args.getInt(3);
-            this.targetHeight = args.getInt(4);
-            this.encodingType = args.getInt(5);
-            this.mediaType = args.getInt(6);
-            this.allowEdit = args.getBoolean(7);
-            this.correctOrientation = args.getBoolean(8);
-            this.saveToPhotoAlbum = args.getBoolean(9);
-
-            this.optionalImageUri = args.getString(12);
-            this.alpha = args.getString(13);
+            request.destType = args.getInt(1);
+            request.srcType = args.getInt(2);
+            request.mQuality = args.getInt(0);
+            request.targetWidth = args.getInt(3);
+            request.targetHeight = args.getInt(4);
+            request.encodingType = args.getInt(5);
+            request.mediaType = args.getInt(6);
+            request.allowEdit = args.getBoolean(7);
+            request.correctOrientation = args.getBoolean(8);
+            request.saveToPhotoAlbum = args.getBoolean(9);
+
+            request.optionalImageUri = args.getString(12);
+            request.alpha = args.getString(13);
+            request.dataChunkSize = args.getInt(14);
+            request.burst = args.optBoolean(15, false) && request.srcType == CAMERA;
+
+            if (request.burst) {
+                if (request.destType != FILE_URI && request.destType != NATIVE_URI) {
+                    callbackContext.error("Burst mode only returns file URIs");
+                    return true;
+                }
+                // Each picture can't be cropped in turn
+                request.allowEdit = false;
+            }
 
             // If the user specifies a 0 or smaller width/height
             // make it -1 so later comparisons succeed
-            if (this.targetWidth < 1) {
-                this.targetWidth = -1;
+            if (request.targetWidth < 1) {
+                request.targetWidth = -1;
             }
-            if (this.targetHeight < 1) {
-                this.targetHeight = -1;
+            if (request.targetHeight < 1) {
+                request.targetHeight = -1;
             }
 
             // We don't return full-quality PNG files. The camera outputs a JPEG
             // so requesting it as a PNG provides no actual benefit
-            if (this.targetHeight == -1 && this.targetWidth == -1 && this.mQuality == 100 &&
-                    !this.correctOrientation && this.encodingType == PNG && this.srcType == CAMERA) {
-                this.encodingType = JPEG;
+            if (request.targetHeight == -1 && request.targetWidth == -1 && request.mQuality == 100 &&
+                    !request.correctOrientation && request.encodingType == PNG && request.srcType == CAMERA) {
+                request.encodingType = JPEG;
             }
 
+            this.request = request;
             try {
-                if (this.srcType == CAMERA) {
-                    this.callTakePicture(destType, encodingType);
+                if (request.srcType == CAMERA) {
+                    this.callTakePicture(request.destType, request.encodingType);
                 }
-                else if ((this.srcType == PHOTOLIBRARY) || (this.srcType == SAVEDPHOTOALBUM)) {
+                else if ((request.srcType == PHOTOLIBRARY) || (request.srcType == SAVEDPHOTOALBUM)) {
                     // FIXME: Stop always requesting the permission
                     if(!PermissionHelper.hasPermission(this, Manifest.permission.READ_EXTERNAL_STORAGE)) {
                         PermissionHelper.requestPermission(this, SAVE_TO_ALBUM_SEC, Manifest.permission.READ_EXTERNAL_STORAGE);
                     } else {
-                        this.getImage(this.srcType, destType, encodingType);
+                        this.getImage(request.srcType, request.destType, request.encodingType);
                     }
                 }
             }
@@ -217,10 +289,81 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
         return false;
     }
 
+    /**
+     * Opens the camera ahead of the next takePicture, so the preview shows up sooner.
+     * The camera is released if no picture is taken within 30 seconds. Without the camera
+     * permission nothing is prepared, the permission is requested by takePicture.
+     */
+    private void prepareCamera(final CallbackContext callback) {
+        if (!PermissionHelper.hasPermission(this, Manifest.permission.CAMERA)) {
+            callback.success();
+            return;
+        }
+        final String engine = preferences.getString("CameraCaptureEngine", CaptureEngine.AUTO);
+        final Context context = this.cordova.getActivity().getApplicationContext();
+        this.cordova.getActivity().runOnUiThread(new Runnable() {
+            public void run() {
+                CaptureEngines.prepare(context, engine);
+                callback.success();
+            }
+        });
+    }
+
+    @Override
+    protected void pluginInitialize() {
+        // Files left over by earlier runs are indexed and evicted in the background
+        getTempCache();
+    }
+
+    /**
+     * Deletes the pictures left in the temporary directory, except those of a capture in progress.
+     */
+    private void cleanupTempDirectory(final CallbackContext callbackContext) {
+        getTempCache().clear(new TempCache.Callback() {
+            @Override
+            public void onCleared(int deleted) {
+                LOG.d(LOG_TAG, "Deleted " + deleted + " temporary files");
+                callbackContext.success();
+            }
+        });
+    }
+
     //--------------------------------------------------------------------------
     // LOCAL METHODS
     //--------------------------------------------------------------------------
 
+    /**
+     * @return the cache of the temporary directory, sized by the CameraCacheMaxSize (MB) and
+     *         CameraCacheMaxFiles preferences
+     */
+    private synchronized TempCache getTempCache() {
+        if (this.tempCache == null) {
+            long maxBytes = (long) preferences.getInteger("CameraCacheMaxSize", DEFAULT_CACHE_MAX_SIZE) * 1024 * 1024;
+            int maxFiles = preferences.getInteger("CameraCacheMaxFiles", DEFAULT_CACHE_MAX_FILES);
+            this.tempCache = new TempCache(new File(getTempDirectoryPath()), maxBytes, maxFiles);
+        }
+        return this.tempCache;
+    }
+
+    /**
+     * @return the cache of the pictures produced from gallery picks, sized by the
+     *         CameraResultCacheSize (MB) preference, or null if it is disabled
+     */
+    private synchronized ResultCache getResultCache() {
+        if (this.resultCache == null) {
+            long maxBytes = (long) preferences.getInteger("CameraResultCacheSize", DEFAULT_RESULT_CACHE_SIZE) * 1024 * 1024;
+            if (maxBytes <= 0) {
+                return null;
+            }
+            this.resultCache = new ResultCache(new File(cordova.getActivity().getCacheDir(), RESULT_CACHE_DIR), maxBytes);
+        }
+        return this.resultCache;
+    }
+
+    /**
+     * @return the temporary directory of the plugin, a directory of the app's cache used by
+     *         nothing else, so cleaning it up never touches files of the app or other plugins
+     */
     private String getTempDirectoryPath() {
         File cache = null;
 
@@ -233,6 +376,8 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
             cache = cordova.getActivity().getCacheDir();
         }
 
+        cache = new File(cache, TEMP_DIR);
+
         // Create the cache directory if it doesn't exist
         cache.mkdirs();
         return cache.getAbsolutePath();
@@ -292,25 +437,47 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
 
     public void takePicture(int returnType, int encodingType)
     {
-        // Save the number of images currently on disk for later
-        this.numPics = queryImgDB(whichContentStore()).getCount();
+        PictureRequest request = this.request;
+        request.timings = new CaptureTimings();
+        request.timings.mark(CaptureTimings.REQUEST);
+
+        // Images added to the media store from now on may be duplicates of the capture
+        request.captureStartTime = System.currentTimeMillis() / 1000;
 
         Context context = this.cordova.getActivity().getApplicationContext();
 
         Intent intent = new Intent(context, CameraActivity.class);
-        intent.putExtra(OPTIONAL_IMAGE_URI, this.optionalImageUri);
-        intent.putExtra(ALPHA, this.alpha);
+        intent.putExtra(OPTIONAL_IMAGE_URI, request.optionalImageUri);
+        intent.putExtra(ALPHA, request.alpha);
+        intent.putExtra(CAPTURE_ENGINE, preferences.getString("CameraCaptureEngine", CaptureEngine.AUTO));
+        // Capture near the final size, unless the user crops the picture before it is scaled
+        if (!request.allowEdit) {
+            intent.putExtra(TARGET_WIDTH, request.targetWidth);
+            intent.putExtra(TARGET_HEIGHT, request.targetHeight);
+        }
+        if (encodingType == JPEG) {
+            intent.putExtra(JPEG_QUALITY, request.mQuality);
+        }
+        intent.putExtra(BURST, request.burst);
+
+        // A picture only sent back to JavaScript doesn't need to go through a file
+        if (canCaptureInMemory(request, returnType, encodingType)) {
+            request.captureKey = CaptureBuffers.newKey();
+            intent.putExtra(CAPTURE_KEY, request.captureKey);
+        } else {
+            request.captureKey = null;
+        }
 
         // Specify file so that large image is captured and returned
         File photo = createCaptureFile(encodingType);
-        //this.imageUri = new CordovaUri(FileProvider.getUriForFile(cordova.getActivity(),
+        //request.imageUri = new CordovaUri(FileProvider.getUriForFile(cordova.getActivity(),
         //        applicationId + ".provider",
         //        photo));
         //intent.putExtra(android.provider.MediaStore.EXTRA_OUTPUT, imageUri.getCorrectUri());
         intent.putExtra(IMAGE_URI, Uri.fromFile(photo).toString());
         ////We can write to this URI, this will hopefully allow us to write files to get to the next step
         //intent.addFlags(Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
-        this.imageUri = Uri.fromFile(photo);
+        request.imageUri = new CordovaUri(Uri.fromFile(photo));
 
         if (this.cordova != null) {
             // Let's check to make sure the camera is actually installed. (Legacy Nexus 7 code)
@@ -329,6 +496,21 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
 //            LOG.d(LOG_TAG, "ERROR: You must use the CordovaInterface for this to work correctly. Please implement it in your activity");
     }
 
+    /**
+     * Whether CameraActivity can hand the captured picture over in memory. That's the case when
+     * it is returned as data, and neither saved to the gallery nor cropped, which need a file.
+     * Reading the EXIF data from memory requires Android 7.0.
+     *
+     * @param returnType        The type of result requested
+     * @param encodingType      The encoding requested
+     * @return true if the picture doesn't need to be written to a file
+     */
+    private boolean canCaptureInMemory(PictureRequest request, int returnType, int encodingType) {
+        return (returnType == DATA_URL || returnType == ARRAY_BUFFER) && encodingType == JPEG &&
+                !request.saveToPhotoAlbum && !request.allowEdit && !request.burst &&
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+    }
+
     /**
      * Create a file in the applications temporary directory based upon the supplied encoding.
      *
@@ -359,7 +541,9 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
             throw new IllegalArgumentException("Invalid Encoding Type: " + encodingType);
         }
 
-        return new File(getTempDirectoryPath(), fileName);
+        File file = new File(getTempDirectoryPath(), fileName);
+        getTempCache().record(file);
+        return file;
     }
 
 
@@ -374,38 +558,39 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
     // TODO: Images selected from SDCARD don't display correctly, but from CAMERA ALBUM do!
     // TODO: Images from kitkat filechooser not going into crop function
     public void getImage(int srcType, int returnType, int encodingType) {
+        PictureRequest request = this.request;
         Intent intent = new Intent();
         String title = GET_PICTURE;
-        croppedUri = null;
+        request.croppedUri = null;
 
-        if (this.mediaType == PICTURE) {
+        if (request.mediaType == PICTURE) {
             intent.setType("image/*");
-            if (this.allowEdit) {
+            if (request.allowEdit) {
                 intent.setAction(Intent.ACTION_PICK);
                 intent.putExtra("crop", "true");
-                if (targetWidth > 0) {
-                    intent.putExtra("outputX", targetWidth);
+                if (request.targetWidth > 0) {
+                    intent.putExtra("outputX", request.targetWidth);
                 }
-                if (targetHeight > 0) {
-                    intent.putExtra("outputY", targetHeight);
+                if (request.targetHeight > 0) {
+                    intent.putExtra("outputY", request.targetHeight);
                 }
-                if (targetHeight > 0 && targetWidth > 0 && targetWidth == targetHeight) {
+                if (request.targetHeight > 0 && request.targetWidth > 0 && request.targetWidth == request.targetHeight) {
                     intent.putExtra("aspectX", 1);
                     intent.putExtra("aspectY", 1);
                 }
                 File photo = createCaptureFile(JPEG);
-                croppedUri = Uri.fromFile(photo);
-                intent.putExtra(android.provider.MediaStore.EXTRA_OUTPUT, croppedUri);
+                request.croppedUri = Uri.fromFile(photo);
+                intent.putExtra(android.provider.MediaStore.EXTRA_OUTPUT, request.croppedUri);
             } else {
                 intent.setAction(Intent.ACTION_GET_CONTENT);
                 intent.addCategory(Intent.CATEGORY_OPENABLE);
             }
-        } else if (this.mediaType == VIDEO) {
+        } else if (request.mediaType == VIDEO) {
             intent.setType("video/*");
             title = GET_VIDEO;
             intent.setAction(Intent.ACTION_GET_CONTENT);
             intent.addCategory(Intent.CATEGORY_OPENABLE);
-        } else if (this.mediaType == ALLMEDIA) {
+        } else if (request.mediaType == ALLMEDIA) {
             // I wanted to make the type 'image/*, video/*' but this does not work on all versions
             // of android so I had to go with the wildcard search.
             intent.setType("*/*");
@@ -425,7 +610,7 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
    *
    * @param picUri
    */
-  private void performCrop(Uri picUri, int destType, Intent cameraIntent) {
+  private void performCrop(PictureRequest request, Uri picUri, int destType, Intent cameraIntent) {
     try {
         Intent cropIntent = new Intent("com.android.camera.action.CROP");
         // indicate image type and Uri
@@ -435,21 +620,21 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
 
 
         // indicate output X and Y
-        if (targetWidth > 0) {
-          cropIntent.putExtra("outputX", targetWidth);
+        if (request.targetWidth > 0) {
+          cropIntent.putExtra("outputX", request.targetWidth);
         }
-        if (targetHeight > 0) {
-          cropIntent.putExtra("outputY", targetHeight);
+        if (request.targetHeight > 0) {
+          cropIntent.putExtra("outputY", request.targetHeight);
         }
-        if (targetHeight > 0 && targetWidth > 0 && targetWidth == targetHeight) {
+        if (request.targetHeight > 0 && request.targetWidth > 0 && request.targetWidth == request.targetHeight) {
           cropIntent.putExtra("aspectX", 1);
           cropIntent.putExtra("aspectY", 1);
         }
         // create new file handle to get full resolution crop
-        croppedUri = Uri.fromFile(createCaptureFile(this.encodingType, System.currentTimeMillis() + ""));
+        request.croppedUri = Uri.fromFile(createCaptureFile(request.encodingType, System.currentTimeMillis() + ""));
         cropIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
         cropIntent.addFlags(Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
-        cropIntent.putExtra("output", croppedUri);
+        cropIntent.putExtra("output", request.croppedUri);
 
 
         // start the activity - we handle returning in onActivityResult
@@ -460,14 +645,7 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
         }
     } catch (ActivityNotFoundException anfe) {
       LOG.e(LOG_TAG, "Crop operation not supported on this device");
-      try {
-          processResultFromCamera(destType, cameraIntent);
-      }
-      catch (IOException e)
-      {
-          e.printStackTrace();
-          LOG.e(LOG_TAG, "Unable to write to file");
-      }
+      processResultFromCameraInBackground(request, destType, cameraIntent);
     }
   }
 
@@ -477,18 +655,119 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      * @param destType          In which form should we return the image
      * @param intent            An Intent, which can return result data to the caller (various data can be attached to Intent "extras").
      */
-    private void processResultFromCamera(int destType, Intent intent) throws IOException {
+    private void processResultFromCamera(PictureRequest request, int destType, Intent intent) throws IOException {
+        processResultFromCamera(request, destType, intent, request.imageUri.getFileUri(), null);
+    }
+
+    /**
+     * Applies all needed transformation to a picture CameraActivity handed over in memory,
+     * and sends it back to JavaScript. No file is read or written.
+     *
+     * @param destType          DATA_URL or ARRAY_BUFFER
+     * @param intent            The result of the capture
+     */
+    private void processInMemoryResultFromCamera(PictureRequest request, int destType, Intent intent) {
+        byte[] jpeg = CaptureBuffers.take(request.captureKey);
+        if (jpeg == null) {
+            LOG.d(LOG_TAG, "The captured picture is no longer in memory");
+            this.failPicture(request, "Error capturing image.");
+            return;
+        }
+
+        int rotate = 0;
+        try {
+            ExifHelper exif = new ExifHelper();
+            exif.createInFile(new ByteArrayInputStream(jpeg));
+            exif.readExifData();
+            rotate = exif.getOrientation();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        markTiming(request, CaptureTimings.EXIF_READ);
+
+        // If sending the captured JPEG back as it is
+        if (isCaptureFinal(request, intent, null, jpeg, rotate) && (!request.correctOrientation || rotate == 0)) {
+            if (destType == ARRAY_BUFFER) {
+                this.sendResult(request, new PluginResult(PluginResult.Status.OK, jpeg));
+            } else {
+                this.sendUncompressedBase64(request, jpeg);
+            }
+        } else {
+            Bitmap bitmap = getScaledAndRotatedBitmap(request, jpeg, rotate);
+            jpeg = null;
+            if (bitmap == null) {
+                LOG.d(LOG_TAG, "I either have a null image path or bitmap");
+                this.failPicture(request, "Unable to create bitmap!");
+                return;
+            }
+            if (destType == ARRAY_BUFFER) {
+                this.processPictureBytes(request, bitmap, request.encodingType);
+            } else {
+                this.processPicture(request, bitmap, request.encodingType);
+            }
+            bitmap.recycle();
+        }
+
+        // Like a picture read from a file, in case the camera also added it to the gallery
+        if (!request.saveToPhotoAlbum) {
+            checkForDuplicateImage(request, DATA_URL);
+        }
+    }
+
+    /**
+     * Applies all needed transformation to each picture of a burst, and returns their URIs
+     * to JavaScript at once, in the order they were taken. They are always returned as files.
+     *
+     * @param intent            The result of the capture, listing the pictures
+     */
+    private void processBurstResultFromCamera(PictureRequest request, Intent intent) throws IOException {
+        ArrayList<String> paths = intent.getStringArrayListExtra(PICTURE_PATHS);
+        if (paths == null || paths.isEmpty()) {
+            this.failPicture(request, "No Image Selected");
+            return;
+        }
+        JSONArray uris = new JSONArray();
+        int processed = 0;
+        try {
+            for (String path : paths) {
+                int count = uris.length();
+                processResultFromCamera(request, FILE_URI, intent, Uri.fromFile(new File(path)), uris);
+                if (uris.length() == count) {
+                    // The error was already sent
+                    return;
+                }
+                processed++;
+            }
+        } finally {
+            // After an error, the captures not processed yet are not returned
+            for (int i = processed; i < paths.size(); i++) {
+                new File(paths.get(i)).delete();
+            }
+        }
+        this.sendResult(request, new PluginResult(PluginResult.Status.OK, uris));
+    }
+
+    /**
+     * Applies all needed transformation to the picture captured to the given file.
+     *
+     * @param destType          In which form should we return the image
+     * @param intent            The result of the capture
+     * @param captureUri        The file the picture was captured to
+     * @param burstUris         Receives the URI of the result in a burst, null to send it to JavaScript
+     */
+    private void processResultFromCamera(PictureRequest request, int destType, Intent intent, Uri captureUri, JSONArray burstUris)
+            throws IOException {
         int rotate = 0;
 
         // Create an ExifHelper to save the exif data that is lost during compression
         ExifHelper exif = new ExifHelper();
 
-        String sourcePath = (this.allowEdit && this.croppedUri != null) ?
-                FileHelper.stripFileProtocol(this.croppedUri.toString()) :
-                this.imageUri.getFilePath();
+        String sourcePath = (request.allowEdit && request.croppedUri != null) ?
+                FileHelper.stripFileProtocol(request.croppedUri.toString()) :
+                captureUri.getPath();
 
 
-        if (this.encodingType == JPEG) {
+        if (request.encodingType == JPEG) {
             try {
                 //We don't support PNG, so let's not pretend we do
                 exif.createInFile(sourcePath);
@@ -499,6 +778,7 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
                 e.printStackTrace();
             }
         }
+        markTiming(request, CaptureTimings.EXIF_READ);
 
         Bitmap bitmap = null;
         Uri galleryUri = null;
@@ -506,22 +786,40 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
         // CB-5479 When this option is given the unchanged image should be saved
         // in the gallery and the modified image is saved in the temporary
         // directory
-        if (this.saveToPhotoAlbum) {
-            galleryUri = Uri.fromFile(new File(getPicturesPath()));
+        if (request.saveToPhotoAlbum) {
+            // The pictures of a burst are taken within the same second
+            galleryUri = Uri.fromFile(new File(getPicturesPath(request, burstUris != null ? "_" + (burstUris.length() + 1) : "")));
 
-            if (this.allowEdit && this.croppedUri != null) {
-                writeUncompressedImage(croppedUri, galleryUri);
+            // The capture is still read below, the gallery gets a link to it when possible
+            if (request.allowEdit && request.croppedUri != null) {
+                placeUncompressedImage(request.croppedUri, galleryUri, true);
             } else {
-                Uri imageUri = this.imageUri.getFileUri();
-                writeUncompressedImage(imageUri, galleryUri);
+                placeUncompressedImage(captureUri, galleryUri, true);
             }
 
             refreshGallery(galleryUri);
+            markTiming(request, CaptureTimings.GALLERY_SAVED);
         }
 
-        // If sending base64 image back
-        if (destType == DATA_URL) {
-            bitmap = getScaledAndRotatedBitmap(sourcePath);
+        boolean captureFinal = isCaptureFinal(request, intent, sourcePath, null, rotate);
+
+        // If sending the captured JPEG back as it is
+        if ((destType == ARRAY_BUFFER || destType == DATA_URL) && request.encodingType == JPEG &&
+                captureFinal && (!request.correctOrientation || rotate == 0)) {
+            if (destType == ARRAY_BUFFER) {
+                this.sendUncompressedBytes(request, sourcePath);
+            } else {
+                this.sendUncompressedBase64(request, sourcePath);
+            }
+
+            if (!request.saveToPhotoAlbum) {
+                checkForDuplicateImage(request, DATA_URL);
+            }
+        }
+
+        // If sending base64 image or bytes back
+        else if (destType == DATA_URL || destType == ARRAY_BUFFER) {
+            bitmap = getScaledAndRotatedBitmap(request, sourcePath);
 
             if (bitmap == null) {
                 // Try to get the bitmap from intent.
@@ -531,64 +829,71 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
             // Double-check the bitmap.
             if (bitmap == null) {
                 LOG.d(LOG_TAG, "I either have a null image path or bitmap");
-                this.failPicture("Unable to create bitmap!");
+                this.failPicture(request, "Unable to create bitmap!");
                 return;
             }
 
 
-            this.processPicture(bitmap, this.encodingType);
+            if (destType == ARRAY_BUFFER) {
+                this.processPictureBytes(request, bitmap, request.encodingType);
+            } else {
+                this.processPicture(request, bitmap, request.encodingType);
+            }
 
-            if (!this.saveToPhotoAlbum) {
-                checkForDuplicateImage(DATA_URL);
+            if (!request.saveToPhotoAlbum) {
+                checkForDuplicateImage(request, DATA_URL);
             }
         }
 
         // If sending filename back
         else if (destType == FILE_URI || destType == NATIVE_URI) {
+            // The pictures of a burst are processed within the same millisecond
+            String resultFileName = System.currentTimeMillis() + (burstUris != null ? "-" + burstUris.length() : "");
             // If all this is true we shouldn't compress the image.
-            if (this.targetHeight == -1 && this.targetWidth == -1 && this.mQuality == 100 &&
-                    !this.correctOrientation) {
+            if (captureFinal && (!request.correctOrientation || isOrientationLossless(request, rotate))) {
+
+                boolean rotationNeeded = request.correctOrientation && rotate != 0;
 
                 // If we saved the uncompressed photo to the album, we can just
                 // return the URI we already created
-                if (this.saveToPhotoAlbum) {
-                    this.callbackContext.success(galleryUri.toString());
+                if (request.saveToPhotoAlbum && !rotationNeeded) {
+                    sendFileResult(request, galleryUri, burstUris);
                 } else {
-                    Uri uri = Uri.fromFile(createCaptureFile(this.encodingType, System.currentTimeMillis() + ""));
-
-                    if (this.allowEdit && this.croppedUri != null) {
-                        Uri croppedUri = Uri.fromFile(new File(getFileNameFromUri(this.croppedUri)));
-                        writeUncompressedImage(croppedUri, uri);
-                    } else {
-                        Uri imageUri = this.imageUri.getFileUri();
-                        writeUncompressedImage(imageUri, uri);
+                    Uri uri = Uri.fromFile(createCaptureFile(request.encodingType, resultFileName));
+                    Uri sourceUri = (request.allowEdit && request.croppedUri != null) ?
+                            Uri.fromFile(new File(getFileNameFromUri(request.croppedUri))) :
+                            captureUri;
+
+                    if (!rotationNeeded || !writeLosslesslyRotatedImage(sourceUri, uri, rotate, exif)) {
+                        // The capture is deleted afterwards, so it can be moved instead
+                        placeUncompressedImage(sourceUri, uri, false);
                     }
 
-                    this.callbackContext.success(uri.toString());
+                    sendFileResult(request, uri, burstUris);
                 }
             } else {
-                Uri uri = Uri.fromFile(createCaptureFile(this.encodingType, System.currentTimeMillis() + ""));
-                bitmap = getScaledAndRotatedBitmap(sourcePath);
+                Uri uri = Uri.fromFile(createCaptureFile(request.encodingType, resultFileName));
+                bitmap = getScaledAndRotatedBitmap(request, sourcePath);
 
                 // Double-check the bitmap.
                 if (bitmap == null) {
                     LOG.d(LOG_TAG, "I either have a null image path or bitmap");
-                    this.failPicture("Unable to create bitmap!");
+                    this.failPicture(request, "Unable to create bitmap!");
                     return;
                 }
 
 
                 // Add compressed version of captured image to returned media store Uri
                 OutputStream os = this.cordova.getActivity().getContentResolver().openOutputStream(uri);
-                CompressFormat compressFormat = encodingType == JPEG ?
+                CompressFormat compressFormat = request.encodingType == JPEG ?
                         CompressFormat.JPEG :
                         CompressFormat.PNG;
 
-                bitmap.compress(compressFormat, this.mQuality, os);
+                bitmap.compress(compressFormat, request.mQuality, os);
                 os.close();
 
                 // Restore exif data to file
-                if (this.encodingType == JPEG) {
+                if (request.encodingType == JPEG) {
                     String exifPath;
                     exifPath = uri.getPath();
                     //We just finished rotating it by an arbitrary orientation, just make sure it's normal
@@ -599,20 +904,75 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
                 }
 
                 // Send Uri back to JavaScript for viewing image
-                this.callbackContext.success(uri.toString());
+                sendFileResult(request, uri, burstUris);
 
             }
         } else {
             throw new IllegalStateException();
         }
 
-        this.cleanup(FILE_URI, this.imageUri.getFileUri(), galleryUri, bitmap);
+        if (burstUris != null) {
+            // Our own activity doesn't add pictures to the media store, only one scan at a time is possible
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            new File(captureUri.getPath()).delete();
+        } else {
+            this.cleanup(request, FILE_URI, captureUri, galleryUri, bitmap);
+        }
         bitmap = null;
     }
 
-    private String getPicturesPath() {
+    private void markTiming(PictureRequest request, String stage) {
+        if (request.timings != null) {
+            request.timings.mark(stage);
+        }
+    }
+
+    /**
+     * Adds the stages of the capture whose result is being sent to the timings store.
+     */
+    private void finishTimings(PictureRequest request) {
+        if (request.timings != null) {
+            request.timings.mark(CaptureTimings.RESULT_SENT);
+            request.timings.finish();
+            request.timings = null;
+        }
+    }
+
+    private void sendFileResult(PictureRequest request, Uri uri, JSONArray burstUris) {
+        if (burstUris != null) {
+            burstUris.put(uri.toString());
+        } else {
+            this.sendResult(request, new PluginResult(PluginResult.Status.OK, uri.toString()));
+        }
+    }
+
+    /**
+     * Sends a picture to JavaScript. The timings of the capture are stored first, so they can
+     * be queried as soon as the picture arrives.
+     */
+    private void sendResult(PictureRequest request, PluginResult result) {
+        finishTimings(request);
+        request.callbackContext.sendPluginResult(result);
+    }
+
+    /**
+     * Whether the requested orientation correction can be met without decoding and re-encoding
+     * the captured JPEG. That is the case when the picture is already upright, or when the
+     * CameraLosslessOrientation preference is set: the DCT coefficients are then rotated with
+     * JpegTransformer, or, if the file can't be transformed, the EXIF orientation tag is kept.
+     *
+     * @param rotate            The rotation in degrees read from the EXIF data of the capture
+     * @return                  true if the captured bytes can be returned unchanged
+     */
+    private boolean isOrientationLossless(PictureRequest request, int rotate) {
+        return request.encodingType == JPEG && (rotate == 0 || request.losslessOrientation);
+    }
+
+    private String getPicturesPath(PictureRequest request, String suffix) {
         String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-        String imageFileName = "IMG_" + timeStamp + (this.encodingType == JPEG ? ".jpg" : ".png");
+        String imageFileName = "IMG_" + timeStamp + suffix + (request.encodingType == JPEG ? ".jpg" : ".png");
         File storageDir = Environment.getExternalStoragePublicDirectory(
                 Environment.DIRECTORY_PICTURES);
         if (!storageDir.exists()) {
@@ -641,35 +1001,25 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
     }
 
 
-    private String outputModifiedBitmap(Bitmap bitmap, Uri uri) throws IOException {
-        // Some content: URIs do not map to file paths (e.g. picasa).
-        String realPath = FileHelper.getRealPath(uri, this.cordova);
-
-        // Get filename from uri
-        String fileName = realPath != null ?
-                realPath.substring(realPath.lastIndexOf('/') + 1) :
-                "modified." + (this.encodingType == JPEG ? "jpg" : "png");
-
-        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-        //String fileName = "IMG_" + timeStamp + (this.encodingType == JPEG ? ".jpg" : ".png");
-        String modifiedPath = getTempDirectoryPath() + "/" + fileName;
+    private String outputModifiedBitmap(PictureRequest request, Bitmap bitmap, Uri uri) throws IOException {
+        String modifiedPath = getModifiedPath(request, uri);
 
         OutputStream os = new FileOutputStream(modifiedPath);
-        CompressFormat compressFormat = this.encodingType == JPEG ?
+        CompressFormat compressFormat = request.encodingType == JPEG ?
                 CompressFormat.JPEG :
                 CompressFormat.PNG;
 
-        bitmap.compress(compressFormat, this.mQuality, os);
+        bitmap.compress(compressFormat, request.mQuality, os);
         os.close();
 
-        if (exifData != null && this.encodingType == JPEG) {
+        if (request.exifData != null && request.encodingType == JPEG) {
             try {
-                if (this.correctOrientation && this.orientationCorrected) {
-                    exifData.resetOrientation();
+                if (request.correctOrientation && request.orientationCorrected) {
+                    request.exifData.resetOrientation();
                 }
-                exifData.createOutFile(modifiedPath);
-                exifData.writeExifData();
-                exifData = null;
+                request.exifData.createOutFile(modifiedPath);
+                request.exifData.writeExifData();
+                request.exifData = null;
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -678,19 +1028,38 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
     }
 
 
+    /**
+     * @return the path in the temporary directory of the picture modified from the given one
+     */
+    private String getModifiedPath(PictureRequest request, Uri uri) {
+        // Some content: URIs do not map to file paths (e.g. picasa).
+        String realPath = FileHelper.getRealPath(uri, this.cordova);
+
+        // Get filename from uri
+        String fileName = realPath != null ?
+                realPath.substring(realPath.lastIndexOf('/') + 1) :
+                "modified." + (request.encodingType == JPEG ? "jpg" : "png");
+
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+        //String fileName = "IMG_" + timeStamp + (request.encodingType == JPEG ? ".jpg" : ".png");
+        String modifiedPath = getTempDirectoryPath() + "/" + fileName;
+        getTempCache().record(new File(modifiedPath));
+        return modifiedPath;
+    }
+
     /**
      * Applies all needed transformation to the image received from the gallery.
      *
      * @param destType In which form should we return the image
      * @param intent   An Intent, which can return result data to the caller (various data can be attached to Intent "extras").
      */
-    private void processResultFromGallery(int destType, Intent intent) {
+    private void processResultFromGallery(PictureRequest request, int destType, Intent intent) {
         Uri uri = intent.getData();
         if (uri == null) {
-            if (croppedUri != null) {
-                uri = croppedUri;
+            if (request.croppedUri != null) {
+                uri = request.croppedUri;
             } else {
-                this.failPicture("null data from photo library");
+                this.failPicture(request, "null data from photo library");
                 return;
             }
         }
@@ -701,8 +1070,8 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
 
         // If you ask for video or all media type you will automatically get back a file URI
         // and there will be no attempt to resize any returned data
-        if (this.mediaType != PICTURE) {
-            this.callbackContext.success(fileLocation);
+        if (request.mediaType != PICTURE) {
+            request.callbackContext.success(fileLocation);
         }
         else {
             String uriString = uri.toString();
@@ -711,54 +1080,81 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
 
             // This is a special case to just return the path as no scaling,
             // rotating, nor compressing needs to be done
-            if (this.targetHeight == -1 && this.targetWidth == -1 &&
-                    (destType == FILE_URI || destType == NATIVE_URI) && !this.correctOrientation &&
-                    mimeType.equalsIgnoreCase(getMimetypeForFormat(encodingType)))
+            if (request.targetHeight == -1 && request.targetWidth == -1 &&
+                    (destType == FILE_URI || destType == NATIVE_URI) && !request.correctOrientation &&
+                    mimeType.equalsIgnoreCase(getMimetypeForFormat(request.encodingType)))
             {
-                this.callbackContext.success(uriString);
+                request.callbackContext.success(uriString);
+            } else if (request.targetHeight == -1 && request.targetWidth == -1 && destType == ARRAY_BUFFER &&
+                    !request.correctOrientation && mimeType.equalsIgnoreCase(getMimetypeForFormat(request.encodingType))) {
+                // Same as above, the picture bytes can be returned unchanged
+                this.sendUncompressedBytes(request, uriString);
             } else {
                 // If we don't have a valid image so quit.
                 if (!("image/jpeg".equalsIgnoreCase(mimeType) || "image/png".equalsIgnoreCase(mimeType))) {
                     LOG.d(LOG_TAG, "I either have a null image path or bitmap");
-                    this.failPicture("Unable to retrieve path to picture!");
+                    this.failPicture(request, "Unable to retrieve path to picture!");
                     return;
                 }
+                // The key is taken before decoding, which may change the target size
+                ResultCache resultCache = request.allowEdit ? null : getResultCache();
+                String resultKey = resultCache != null ? getResultKey(request, uri, fileLocation, destType) : null;
+                File cachedResult = resultKey != null ? resultCache.get(resultKey) : null;
+                if (cachedResult != null) {
+                    sendCachedResult(request, cachedResult, destType, uri);
+                    return;
+                }
+
                 Bitmap bitmap = null;
                 try {
-                    bitmap = getScaledAndRotatedBitmap(uriString);
+                    bitmap = getScaledAndRotatedBitmap(request, uriString);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
                 if (bitmap == null) {
                     LOG.d(LOG_TAG, "I either have a null image path or bitmap");
-                    this.failPicture("Unable to create bitmap!");
+                    this.failPicture(request, "Unable to create bitmap!");
                     return;
                 }
 
+                // Encoded into the cache and sent from there
+                if ((destType == DATA_URL || destType == ARRAY_BUFFER) &&
+                        (cachedResult = cacheEncodedBitmap(request, resultCache, resultKey, bitmap)) != null) {
+                    sendCachedResult(request, cachedResult, destType, uri);
+                }
+
                 // If sending base64 image back
-                if (destType == DATA_URL) {
-                    this.processPicture(bitmap, this.encodingType);
+                else if (destType == DATA_URL) {
+                    this.processPicture(request, bitmap, request.encodingType);
+                }
+
+                // If sending the encoded bytes back
+                else if (destType == ARRAY_BUFFER) {
+                    this.processPictureBytes(request, bitmap, request.encodingType);
                 }
 
                 // If sending filename back
                 else if (destType == FILE_URI || destType == NATIVE_URI || destType == ALL_URI) {
                     // Did we modify the image?
-                    if ( (this.targetHeight > 0 && this.targetWidth > 0) ||
-                            (this.correctOrientation && this.orientationCorrected) ||
-                            !mimeType.equalsIgnoreCase(getMimetypeForFormat(encodingType)))
+                    if ( (request.targetHeight > 0 && request.targetWidth > 0) ||
+                            (request.correctOrientation && request.orientationCorrected) ||
+                            !mimeType.equalsIgnoreCase(getMimetypeForFormat(request.encodingType)))
                     {
                         try {
-                            String modifiedPath = this.outputModifiedBitmap(bitmap, uri);
+                            String modifiedPath = this.outputModifiedBitmap(request, bitmap, uri);
+                            if (resultKey != null) {
+                                cacheModifiedFile(resultCache, resultKey, new File(modifiedPath));
+                            }
                             // The modified image is cached by the app in order to get around this and not have to delete you
                             // application cache I'm adding the current system time to the end of the file url.
-                            this.callbackContext.success("file://" + modifiedPath + "?" + System.currentTimeMillis());
+                            request.callbackContext.success("file://" + modifiedPath + "?" + System.currentTimeMillis());
 
                         } catch (Exception e) {
                             e.printStackTrace();
-                            this.failPicture("Error retrieving image.");
+                            this.failPicture(request, "Error retrieving image.");
                         }
                     } else {
-                        this.callbackContext.success(fileLocation);
+                        request.callbackContext.success(fileLocation);
                     }
                 }
                 if (bitmap != null) {
@@ -770,6 +1166,159 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
         }
     }
 
+    /**
+     * Returns the key of the result produced from a gallery picture with the current options.
+     *
+     * @param uri           The URI of the picture
+     * @param fileLocation  The path of the picture, may be null
+     * @param destType      In which form the image is returned
+     * @return the key, or null if the picture can't be identified
+     */
+    private String getResultKey(PictureRequest request, Uri uri, String fileLocation, int destType) {
+        String source = getSourceIdentity(uri, fileLocation);
+        if (source == null) {
+            return null;
+        }
+        // Files keep the EXIF data of the source, encoded results don't
+        String output = destType == DATA_URL || destType == ARRAY_BUFFER ? "encoded" : "file";
+        return ResultCache.key(source, request.targetWidth, request.targetHeight, request.encodingType,
+                request.mQuality, request.correctOrientation, output);
+    }
+
+    /**
+     * Identifies a gallery picture by its location, size and modification time, so a changed
+     * picture gets a new identity. Pictures without a modification time are identified by
+     * a hash of their content.
+     *
+     * @return the identity, or null if the picture can't be read
+     */
+    private String getSourceIdentity(Uri uri, String fileLocation) {
+        if (fileLocation != null) {
+            File file = new File(fileLocation);
+            if (file.isFile() && file.lastModified() > 0) {
+                return ResultCache.key(file.getAbsolutePath(), file.length(), file.lastModified());
+            }
+        }
+        if ("content".equals(uri.getScheme())) {
+            Cursor cursor = null;
+            try {
+                cursor = cordova.getActivity().getContentResolver().query(uri, null, null, null, null);
+                if (cursor != null && cursor.moveToFirst()) {
+                    long size = getLongColumn(cursor, OpenableColumns.SIZE);
+                    long lastModified = getLongColumn(cursor, DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                    if (lastModified <= 0) {
+                        // Seconds in the media store
+                        lastModified = getLongColumn(cursor, MediaStore.MediaColumns.DATE_MODIFIED) * 1000;
+                    }
+                    if (size > 0 && lastModified > 0) {
+                        return ResultCache.key(uri.toString(), size, lastModified);
+                    }
+                }
+            } catch (Exception e) {
+                LOG.d(LOG_TAG, "Can't query " + uri + ": " + e.getMessage());
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+        try {
+            String hash = ResultCache.hashContent(FileHelper.getInputStreamFromUriString(uri.toString(), cordova));
+            return hash != null ? "sha1:" + hash : null;
+        } catch (IOException e) {
+            LOG.d(LOG_TAG, "Can't read " + uri + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static long getLongColumn(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        return index >= 0 && !cursor.isNull(index) ? cursor.getLong(index) : -1;
+    }
+
+    /**
+     * Compresses a bitmap into the result cache.
+     *
+     * @return the cached result, or null if it could not be cached
+     */
+    private File cacheEncodedBitmap(PictureRequest request, ResultCache resultCache, String resultKey, Bitmap bitmap) {
+        if (resultKey == null) {
+            return null;
+        }
+        File entry = resultCache.newEntryFile();
+        if (entry == null) {
+            return null;
+        }
+        CompressFormat compressFormat = request.encodingType == JPEG ?
+                CompressFormat.JPEG :
+                CompressFormat.PNG;
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(entry);
+            boolean compressed = bitmap.compress(compressFormat, request.mQuality, os);
+            os.close();
+            os = null;
+            if (compressed) {
+                return resultCache.put(resultKey, entry);
+            }
+        } catch (IOException e) {
+            LOG.d(LOG_TAG, "Can't cache the picture: " + e.getMessage());
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    LOG.d(LOG_TAG, "Exception while closing output stream.");
+                }
+            }
+        }
+        entry.delete();
+        return null;
+    }
+
+    /**
+     * Copies a modified picture into the result cache. The picture is copied rather than linked,
+     * so writing to the file returned to JavaScript can't change the cached result.
+     */
+    private void cacheModifiedFile(ResultCache resultCache, String resultKey, File modified) {
+        File entry = resultCache.newEntryFile();
+        if (entry == null) {
+            return;
+        }
+        try {
+            writeUncompressedImage(Uri.fromFile(modified), Uri.fromFile(entry));
+            resultCache.put(resultKey, entry);
+        } catch (IOException e) {
+            LOG.d(LOG_TAG, "Can't cache the picture: " + e.getMessage());
+            entry.delete();
+        }
+    }
+
+    /**
+     * Returns a cached result to JavaScript. Files are returned as a copy in the temporary
+     * directory, like a freshly modified picture.
+     *
+     * @param cached    The cached result
+     * @param destType  In which form the image is returned
+     * @param uri       The URI of the gallery picture
+     */
+    private void sendCachedResult(PictureRequest request, File cached, int destType, Uri uri) {
+        if (destType == DATA_URL) {
+            this.sendUncompressedBase64(request, cached.getAbsolutePath());
+        } else if (destType == ARRAY_BUFFER) {
+            this.sendUncompressedBytes(request, cached.getAbsolutePath());
+        } else {
+            try {
+                String modifiedPath = getModifiedPath(request, uri);
+                writeUncompressedImage(Uri.fromFile(cached), Uri.fromFile(new File(modifiedPath)));
+                request.callbackContext.success("file://" + modifiedPath + "?" + System.currentTimeMillis());
+            } catch (IOException e) {
+                e.printStackTrace();
+                this.failPicture(request, "Error retrieving image.");
+            }
+        }
+    }
+
     /**
      * Called when the camera view exits.
      *
@@ -782,6 +1331,7 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
         // Get src and dest types from request code for a Camera Activity
         int srcType = (requestCode / 16) - 1;
         int destType = (requestCode % 16) - 1;
+        PictureRequest request = this.request;
 
         // If Camera Crop
         if (requestCode >= CROP_CAMERA) {
@@ -790,85 +1340,261 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
                 // Because of the inability to pass through multiple intents, this hack will allow us
                 // to pass arcane codes back.
                 destType = requestCode - CROP_CAMERA;
-                try {
-                    processResultFromCamera(destType, intent);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    LOG.e(LOG_TAG, "Unable to write to file");
-                }
+                processResultFromCameraInBackground(request, destType, intent);
 
             }// If cancelled
             else if (resultCode == Activity.RESULT_CANCELED) {
-                this.failPicture("No Image Selected");
+                failPictureInBackground(request, "No Image Selected");
             }
 
             // If something else
             else {
-                this.failPicture("Did not complete!");
+                failPictureInBackground(request, "Did not complete!");
             }
         }
         // If CAMERA
         else if (srcType == CAMERA) {
             // If image available
             if (resultCode == Activity.RESULT_OK) {
-                try {
-                    if (this.allowEdit) {
-                        Uri tmpFile = FileProvider.getUriForFile(cordova.getActivity(),
-                                applicationId + ".provider",
-                                createCaptureFile(this.encodingType));
-                        performCrop(tmpFile, destType, intent);
-                    } else {
-                        this.processResultFromCamera(destType, intent);
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    this.failPicture("Error capturing image.");
+                if (request.timings != null && intent != null) {
+                    request.timings.add(intent.getBundleExtra(TIMINGS));
+                }
+                markTiming(request, CaptureTimings.RESULT_RECEIVED);
+                recordCaptureFiles(request, intent);
+                if (request.allowEdit) {
+                    Uri tmpFile = FileProvider.getUriForFile(cordova.getActivity(),
+                            applicationId + ".provider",
+                            createCaptureFile(request.encodingType));
+                    performCrop(request, tmpFile, destType, intent);
+                } else if (request.burst) {
+                    processBurstResultFromCameraInBackground(request, intent);
+                } else if (request.captureKey != null) {
+                    processInMemoryResultFromCameraInBackground(request, destType, intent);
+                } else {
+                    processResultFromCameraInBackground(request, destType, intent);
                 }
             }
 
             // If cancelled
             else if (resultCode == Activity.RESULT_CANCELED) {
-                this.failPicture("No Image Selected");
+                discardCaptureBuffer(request);
+                failPictureInBackground(request, "No Image Selected");
             }
 
             // If something else
             else {
-                this.failPicture("Did not complete!");
+                discardCaptureBuffer(request);
+                failPictureInBackground(request, "Did not complete!");
             }
         }
         // If retrieving photo from library
         else if ((srcType == PHOTOLIBRARY) || (srcType == SAVEDPHOTOALBUM)) {
             if (resultCode == Activity.RESULT_OK && intent != null) {
-                final Intent i = intent;
-                final int finalDestType = destType;
-                cordova.getThreadPool().execute(new Runnable() {
-                    public void run() {
-                        processResultFromGallery(finalDestType, i);
-                    }
-                });
+                processResultFromGalleryInBackground(request, destType, intent);
             } else if (resultCode == Activity.RESULT_CANCELED) {
-                this.failPicture("No Image Selected");
+                failPictureInBackground(request, "No Image Selected");
             } else {
-                this.failPicture("Selection did not complete!");
+                failPictureInBackground(request, "Selection did not complete!");
             }
         }
     }
 
-    private int exifToDegrees(int exifOrientation) {
-        if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90) {
-            return 90;
-        } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_180) {
-            return 180;
-        } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
-            return 270;
-        } else {
-            return 0;
-        }
-    }
+    /**
+     * Records the files CameraActivity wrote as used, so the temporary directory doesn't
+     * evict them while they are processed, however long the user took to return.
+     *
+     * @param intent    The result of the capture
+     */
+    private void recordCaptureFiles(PictureRequest request, Intent intent) {
+        if (request.burst) {
+            ArrayList<String> paths = intent != null ? intent.getStringArrayListExtra(PICTURE_PATHS) : null;
+            if (paths != null) {
+                for (String path : paths) {
+                    getTempCache().record(new File(path));
+                }
+            }
+        } else if (request.captureKey == null) {
+            getTempCache().record(new File(request.imageUri.getFileUri().getPath()));
+        }
+    }
+
+    /**
+     * Returns whether the captured picture can be returned without decoding and compressing it
+     * again. That's the case when the untouched picture is requested, or when CameraActivity
+     * already had the camera encode it at the requested quality and size. The orientation
+     * is not considered here.
+     *
+     * @param intent        The result of the capture
+     * @param sourcePath    The path of the captured picture
+     * @param jpeg          The captured picture when it was handed over in memory, instead of the path
+     * @param rotate        The rotation of the picture given by its EXIF data
+     * @return true if only the orientation may still need to be fixed
+     */
+    private boolean isCaptureFinal(PictureRequest request, Intent intent, String sourcePath, byte[] jpeg, int rotate) {
+        if (request.targetHeight == -1 && request.targetWidth == -1 && request.mQuality == 100) {
+            return true;
+        }
+        if (request.encodingType != JPEG || (request.allowEdit && request.croppedUri != null) || intent == null ||
+                intent.getIntExtra(JPEG_QUALITY, -1) != request.mQuality) {
+            return false;
+        }
+        if (request.targetHeight == -1 && request.targetWidth == -1) {
+            return true;
+        }
+
+        // The camera may have captured at exactly the target size
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        if (jpeg != null) {
+            BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        } else {
+            BitmapFactory.decodeFile(sourcePath, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return false;
+        }
+        boolean swap = request.correctOrientation && (rotate == 90 || rotate == 270);
+        int width = swap ? options.outHeight : options.outWidth;
+        int height = swap ? options.outWidth : options.outHeight;
+        int[] widthHeight = calculateAspectRatio(request, width, height);
+        return widthHeight[0] == width && widthHeight[1] == height;
+    }
+
+    /**
+     * Processes a result with the request it belongs to.
+     */
+    private interface ResultProcessor {
+        void process(PictureRequest request) throws IOException;
+    }
+
+    /**
+     * Runs a result processor on the processing thread. Decoding, scaling, compressing and
+     * rewriting the EXIF data of a picture can take seconds, which must not block the UI thread.
+     *
+     * The processor gets the request the result belongs to, a later takePicture call makes a
+     * new one. Any error, even running out of memory, fails the request instead of leaving its
+     * callback pending.
+     *
+     * @param request           The request the result belongs to
+     * @param processor         Processes the result
+     */
+    private void processInBackground(final PictureRequest request, final ResultProcessor processor) {
+        getProcessingExecutor().execute(new Runnable() {
+            public void run() {
+                try {
+                    processor.process(request);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    LOG.e(LOG_TAG, "Unable to write to file");
+                    failPicture(request, "Error capturing image.");
+                } catch (Throwable e) {
+                    LOG.e(LOG_TAG, "Error processing the picture", e);
+                    failPicture(request, "Error processing image.");
+                }
+            }
+        });
+    }
+
+    /**
+     * Fails a request on the processing thread, so the error doesn't overtake the results
+     * still being processed.
+     *
+     * @param request           The request to fail
+     * @param err               The error message
+     */
+    private void failPictureInBackground(final PictureRequest request, final String err) {
+        getProcessingExecutor().execute(new Runnable() {
+            public void run() {
+                failPicture(request, err);
+            }
+        });
+    }
+
+    private void processResultFromCameraInBackground(PictureRequest request, final int destType, final Intent intent) {
+        processInBackground(request, new ResultProcessor() {
+            public void process(PictureRequest request) throws IOException {
+                processResultFromCamera(request, destType, intent);
+            }
+        });
+    }
+
+    private void processInMemoryResultFromCameraInBackground(PictureRequest request, final int destType, final Intent intent) {
+        processInBackground(request, new ResultProcessor() {
+            public void process(PictureRequest request) {
+                processInMemoryResultFromCamera(request, destType, intent);
+            }
+        });
+    }
+
+    private void discardCaptureBuffer(PictureRequest request) {
+        if (request.captureKey != null) {
+            CaptureBuffers.discard(request.captureKey);
+        }
+    }
+
+    private void processBurstResultFromCameraInBackground(PictureRequest request, final Intent intent) {
+        processInBackground(request, new ResultProcessor() {
+            public void process(PictureRequest request) throws IOException {
+                processBurstResultFromCamera(request, intent);
+            }
+        });
+    }
+
+    private void processResultFromGalleryInBackground(PictureRequest request, final int destType, final Intent intent) {
+        processInBackground(request, new ResultProcessor() {
+            public void process(PictureRequest request) {
+                processResultFromGallery(request, destType, intent);
+            }
+        });
+    }
+
+    /**
+     * A single thread processes all results, so they are returned to JavaScript in the order
+     * the pictures were taken or chosen.
+     *
+     * @return the executor for result processing
+     */
+    private synchronized ExecutorService getProcessingExecutor() {
+        if (this.processingExecutor == null) {
+            this.processingExecutor = Executors.newSingleThreadExecutor();
+        }
+        return this.processingExecutor;
+    }
+
+    @Override
+    public void onDestroy() {
+        CaptureEngines.release();
+        synchronized (this) {
+            if (this.processingExecutor != null) {
+                this.processingExecutor.shutdown();
+                this.processingExecutor = null;
+            }
+            if (this.tempCache != null) {
+                this.tempCache.close();
+                this.tempCache = null;
+            }
+        }
+        super.onDestroy();
+    }
+
+    private int exifToDegrees(int exifOrientation) {
+        if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90) {
+            return 90;
+        } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_180) {
+            return 180;
+        } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
+            return 270;
+        } else {
+            return 0;
+        }
+    }
 
     /**
      * Write an inputstream to local disk
      *
+     * Local files and content URIs backed by a file descriptor are copied without the data
+     * going through the Java heap, see StreamHelper.
+     *
      * @param fis - The InputStream to write
      * @param dest - Destination on disk to write to
      * @throws FileNotFoundException
@@ -876,14 +1602,42 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      */
     private void writeUncompressedImage(InputStream fis, Uri dest) throws FileNotFoundException,
             IOException {
+        writeUncompressedImage(fis, -1, dest);
+    }
+
+    /**
+     * Write an inputstream to local disk, see writeUncompressedImage(InputStream, Uri).
+     *
+     * @param fis - The InputStream to write
+     * @param length - The number of bytes to write, -1 to write up to the end of the stream
+     * @param dest - Destination on disk to write to
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    private void writeUncompressedImage(InputStream fis, long length, Uri dest) throws FileNotFoundException,
+            IOException {
         OutputStream os = null;
+        ParcelFileDescriptor pfd = null;
 
         try {
-            os = this.cordova.getActivity().getContentResolver().openOutputStream(dest);
-            byte[] buffer = new byte[4096];
-            int len;
-            while ((len = fis.read(buffer)) != -1) {
-                os.write(buffer, 0, len);
+            if ("file".equals(dest.getScheme())) {
+                os = new FileOutputStream(dest.getPath());
+            } else {
+                try {
+                    pfd = this.cordova.getActivity().getContentResolver().openFileDescriptor(dest, "w");
+                } catch (Exception e) {
+                    LOG.d(LOG_TAG, "No file descriptor for " + dest + ", writing to a stream");
+                }
+                // The descriptor is closed with the stream
+                os = pfd != null ? new ParcelFileDescriptor.AutoCloseOutputStream(pfd) :
+                        this.cordova.getActivity().getContentResolver().openOutputStream(dest);
+            }
+
+            // The channel of a part of a file reaches past the part, its stream doesn't
+            long written = StreamHelper.copy(fis, os, length, !(fis instanceof AssetFileDescriptor.AutoCloseInputStream));
+            if (pfd != null) {
+                // A descriptor opened for writing may not be truncated
+                ((FileOutputStream) os).getChannel().truncate(written);
             }
             os.flush();
         } finally {
@@ -903,6 +1657,7 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
             }
         }
     }
+
     /**
      * In the special case where the default width, height and quality are unchanged
      * we just write the file out to disk saving the expensive Bitmap.compress function.
@@ -919,6 +1674,83 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
 
     }
 
+    /**
+     * Puts an untouched image at its destination without copying its bytes when both are files
+     * on the same volume: the source is renamed, or hard linked when it must be kept. Files on
+     * different volumes, content URIs and devices without link support are copied.
+     *
+     * @param src               The image to place
+     * @param dest              Destination on disk
+     * @param keepSource        Must src still be readable afterwards
+     * @throws IOException
+     */
+    private void placeUncompressedImage(Uri src, Uri dest, boolean keepSource) throws IOException {
+        if ("file".equals(src.getScheme()) && "file".equals(dest.getScheme())) {
+            File srcFile = new File(src.getPath());
+            File destFile = new File(dest.getPath());
+            if (!keepSource) {
+                if (srcFile.renameTo(destFile)) {
+                    return;
+                }
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                try {
+                    Os.link(srcFile.getAbsolutePath(), destFile.getAbsolutePath());
+                    return;
+                } catch (ErrnoException e) {
+                    LOG.d(LOG_TAG, "Can't link " + srcFile + ", copying it: " + e.getMessage());
+                }
+            }
+        }
+        writeUncompressedImage(src, dest);
+    }
+
+    /**
+     * Rotates a JPEG file without decoding it to pixels and resets the orientation in the
+     * EXIF data copied from the source.
+     *
+     * @param src               The JPEG file to rotate
+     * @param dest              Destination on disk to write to
+     * @param rotate            Clockwise rotation in degrees
+     * @param exif              The EXIF data read from src
+     * @return                  false if src can't be transformed losslessly, nothing is written then
+     * @throws IOException
+     */
+    private boolean writeLosslesslyRotatedImage(Uri src, Uri dest, int rotate, ExifHelper exif) throws IOException {
+        JpegTransformer jpeg;
+        InputStream fis = null;
+        try {
+            fis = new FileInputStream(FileHelper.stripFileProtocol(src.toString()));
+            jpeg = JpegTransformer.read(fis);
+            jpeg.transform(JpegTransformer.forRotation(rotate));
+        } catch (Exception e) {
+            LOG.w(LOG_TAG, "Unable to rotate the JPEG losslessly: " + e.toString());
+            return false;
+        } catch (OutOfMemoryError oom) {
+            LOG.w(LOG_TAG, "Not enough memory to rotate the JPEG losslessly");
+            return false;
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                    LOG.d(LOG_TAG, "Exception while closing file input stream.");
+                }
+            }
+        }
+
+        OutputStream os = this.cordova.getActivity().getContentResolver().openOutputStream(dest);
+        try {
+            jpeg.write(os);
+        } finally {
+            os.close();
+        }
+
+        exif.resetOrientation();
+        exif.createOutFile(dest.getPath());
+        exif.writeExifData();
+        return true;
+    }
+
     /**
      * Create entry in media store for image
      *
@@ -949,9 +1781,9 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      * @return
      * @throws IOException
      */
-    private Bitmap getScaledAndRotatedBitmap(String imageUrl) throws IOException {
+    private Bitmap getScaledAndRotatedBitmap(PictureRequest request, String imageUrl) throws IOException {
         // If no new width or height were specified, and orientation is not needed return the original bitmap
-        if (this.targetWidth <= 0 && this.targetHeight <= 0 && !(this.correctOrientation)) {
+        if (request.targetWidth <= 0 && request.targetHeight <= 0 && !(request.correctOrientation)) {
             InputStream fileStream = null;
             Bitmap image = null;
             try {
@@ -970,146 +1802,237 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
         }
 
 
-        /*  Copy the inputstream to a temporary file on the device.
-            We then use this temporary file to determine the width/height/orientation.
-            This is the only way to determine the orientation of the photo coming from 3rd party providers (Google Drive, Dropbox,etc)
-            This also ensures we create a scaled bitmap with the correct orientation
+        /*  Read the width/height/orientation and the pixels from one seekable file descriptor.
+            Local files and most content providers hand out such a descriptor directly.
 
-             We delete the temporary file once we are done
+            Streams from 3rd party providers (Google Drive, Dropbox,etc) can't be rewound, so only
+            those are copied to a temporary file on the device first. This is the only way to
+            determine the orientation of such a photo, and we delete the copy once we are done
          */
         File localFile = null;
-        Uri galleryUri = null;
+        FileInputStream fileStream = null;
+        ParcelFileDescriptor pfd = null;
+        FileDescriptor fd = null;
         int rotate = 0;
         try {
-            InputStream fileStream = FileHelper.getInputStreamFromUriString(imageUrl, cordova);
-            if (fileStream != null) {
-                // Generate a temporary file
-                String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-                String fileName = "IMG_" + timeStamp + (this.encodingType == JPEG ? ".jpg" : ".png");
-                localFile = new File(getTempDirectoryPath() + fileName);
-                galleryUri = Uri.fromFile(localFile);
-                writeUncompressedImage(fileStream, galleryUri);
+            String filePath = FileHelper.getLocalFilePath(imageUrl, cordova);
+            // Below Android 7.0 the EXIF data can only be read from a path, the content is copied
+            if (filePath == null && imageUrl.startsWith("content") && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
                 try {
-                    String mimeType = FileHelper.getMimeType(imageUrl.toString(), cordova);
-                    if ("image/jpeg".equalsIgnoreCase(mimeType)) {
-                        //  ExifInterface doesn't like the file:// prefix
-                        String filePath = galleryUri.toString().replace("file://", "");
-                        // read exifData of source
-                        exifData = new ExifHelper();
-                        exifData.createInFile(filePath);
-                        // Use ExifInterface to pull rotation information
-                        if (this.correctOrientation) {
-                            ExifInterface exif = new ExifInterface(filePath);
-                            rotate = exifToDegrees(exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_UNDEFINED));
+                    pfd = this.cordova.getActivity().getContentResolver().openFileDescriptor(Uri.parse(imageUrl), "r");
+                } catch (Exception e) {
+                    LOG.d(LOG_TAG, "No file descriptor for " + imageUrl + ", falling back to a copy");
+                }
+                // Pipes and sockets can't be seeked back for the second decode pass
+                if (pfd != null && pfd.getStatSize() < 0) {
+                    pfd.close();
+                    pfd = null;
+                }
+            }
+
+            if (pfd != null) {
+                fd = pfd.getFileDescriptor();
+            } else {
+                if (filePath == null) {
+                    InputStream inputStream = null;
+                    long length = -1;
+                    if (imageUrl.startsWith("content")) {
+                        AssetFileDescriptor afd = null;
+                        try {
+                            afd = this.cordova.getActivity().getContentResolver().openAssetFileDescriptor(Uri.parse(imageUrl), "r");
+                        } catch (Exception e) {
+                            LOG.d(LOG_TAG, "No file descriptor for " + imageUrl + ", reading a stream");
+                        }
+                        if (afd != null) {
+                            // The picture may only be a part of the file
+                            inputStream = afd.createInputStream();
+                            length = afd.getDeclaredLength();
                         }
                     }
-                } catch (Exception oe) {
-                    LOG.w(LOG_TAG,"Unable to read Exif data: "+ oe.toString());
-                    rotate = 0;
+                    if (inputStream == null) {
+                        inputStream = FileHelper.getInputStreamFromUriString(imageUrl, cordova);
+                    }
+                    if (inputStream == null) {
+                        return null;
+                    }
+                    // Generate a temporary file
+                    String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+                    String fileName = "IMG_" + timeStamp + (request.encodingType == JPEG ? ".jpg" : ".png");
+                    localFile = new File(getTempDirectoryPath(), fileName);
+                    writeUncompressedImage(inputStream, length, Uri.fromFile(localFile));
+                    filePath = localFile.getAbsolutePath();
+                }
+                fileStream = new FileInputStream(filePath);
+                fd = fileStream.getFD();
+            }
+
+            try {
+                String mimeType = FileHelper.getMimeType(imageUrl.toString(), cordova);
+                if ("image/jpeg".equalsIgnoreCase(mimeType)) {
+                    // read exifData of source
+                    request.exifData = new ExifHelper();
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                        request.exifData.createInFile(fd);
+                        Os.lseek(fd, 0, OsConstants.SEEK_SET);
+                    } else if (filePath != null) {
+                        request.exifData.createInFile(filePath);
+                    }
+                    request.exifData.readExifData();
+                    // Use the exif data to pull rotation information
+                    if (request.correctOrientation) {
+                        rotate = request.exifData.getOrientation();
+                    }
                 }
+            } catch (Exception oe) {
+                LOG.w(LOG_TAG,"Unable to read Exif data: "+ oe.toString());
+                rotate = 0;
             }
         }
         catch (Exception e)
         {
             LOG.e(LOG_TAG,"Exception while getting input stream: "+ e.toString());
+            closeImageSource(fileStream, pfd, localFile);
             return null;
         }
 
+        try {
+            return decodeScaledAndRotatedBitmap(request, fd, null, rotate);
+        }
+        finally {
+            closeImageSource(fileStream, pfd, localFile);
+        }
 
+    }
 
-        try {
-            // figure out the original width and height of the image
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-            InputStream fileStream = null;
-            try {
-                fileStream = FileHelper.getInputStreamFromUriString(galleryUri.toString(), cordova);
-                BitmapFactory.decodeStream(fileStream, null, options);
-            } finally {
-                if (fileStream != null) {
-                    try {
-                        fileStream.close();
-                    } catch (IOException e) {
-                        LOG.d(LOG_TAG, "Exception while closing file input stream.");
-                    }
-                }
-            }
+    /**
+     * Scales the captured picture held in memory and corrects its orientation, like
+     * getScaledAndRotatedBitmap does for a file.
+     *
+     * @param jpeg      The JPEG data
+     * @param rotate    The rotation given by the EXIF data of the picture
+     * @return the scaled and rotated bitmap, null if it could not be decoded
+     */
+    private Bitmap getScaledAndRotatedBitmap(PictureRequest request, byte[] jpeg, int rotate) {
+        if (request.targetWidth <= 0 && request.targetHeight <= 0 && !(request.correctOrientation)) {
+            return BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
+        }
+        return decodeScaledAndRotatedBitmap(request, null, jpeg, request.correctOrientation ? rotate : 0);
+    }
 
+    /**
+     * Decodes the picture from the descriptor, or from memory when the JPEG data is given,
+     * at the target size and with the orientation corrected.
+     *
+     * @param fd        A seekable descriptor of the picture
+     * @param jpeg      The JPEG data, null to read the descriptor
+     * @param rotate    The rotation to correct
+     * @return the scaled and rotated bitmap, null if it could not be decoded
+     */
+    private Bitmap decodeScaledAndRotatedBitmap(PictureRequest request, FileDescriptor fd, byte[] jpeg, int rotate) {
+        // figure out the original width and height of the image
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeImage(fd, jpeg, options);
+
+        //CB-2292: WTF? Why is the width null?
+        if (options.outWidth == 0 || options.outHeight == 0) {
+            return null;
+        }
 
-            //CB-2292: WTF? Why is the width null?
-            if (options.outWidth == 0 || options.outHeight == 0) {
-                return null;
-            }
+        // User didn't specify output dimensions, but they need orientation
+        if (request.targetWidth <= 0 && request.targetHeight <= 0) {
+            request.targetWidth = options.outWidth;
+            request.targetHeight = options.outHeight;
+        }
 
-            // User didn't specify output dimensions, but they need orientation
-            if (this.targetWidth <= 0 && this.targetHeight <= 0) {
-                this.targetWidth = options.outWidth;
-                this.targetHeight = options.outHeight;
-            }
+        // Setup target width/height based on orientation
+        int rotatedWidth, rotatedHeight;
+        boolean rotated= false;
+        if (rotate == 90 || rotate == 270) {
+            rotatedWidth = options.outHeight;
+            rotatedHeight = options.outWidth;
+            rotated = true;
+        } else {
+            rotatedWidth = options.outWidth;
+            rotatedHeight = options.outHeight;
+        }
 
-            // Setup target width/height based on orientation
-            int rotatedWidth, rotatedHeight;
-            boolean rotated= false;
-            if (rotate == 90 || rotate == 270) {
-                rotatedWidth = options.outHeight;
-                rotatedHeight = options.outWidth;
-                rotated = true;
-            } else {
-                rotatedWidth = options.outWidth;
-                rotatedHeight = options.outHeight;
-            }
+        // determine the correct aspect ratio
+        int[] widthHeight = calculateAspectRatio(request, rotatedWidth, rotatedHeight);
 
-            // determine the correct aspect ratio
-            int[] widthHeight = calculateAspectRatio(rotatedWidth, rotatedHeight);
 
+        // Load in the smallest bitmap possible that is closest to the size we want.
+        // The descriptor offset is left untouched by the bounds pass, so it can be reused as-is.
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateSampleSize(rotatedWidth, rotatedHeight,  widthHeight[0], widthHeight[1]);
+        Bitmap unscaledBitmap = decodeImage(fd, jpeg, options);
+        if (unscaledBitmap == null) {
+            return null;
+        }
 
-            // Load in the smallest bitmap possible that is closest to the size we want
-            options.inJustDecodeBounds = false;
-            options.inSampleSize = calculateSampleSize(rotatedWidth, rotatedHeight,  widthHeight[0], widthHeight[1]);
-            Bitmap unscaledBitmap = null;
-            try {
-                fileStream = FileHelper.getInputStreamFromUriString(galleryUri.toString(), cordova);
-                unscaledBitmap = BitmapFactory.decodeStream(fileStream, null, options);
-            } finally {
-                if (fileStream != null) {
-                    try {
-                        fileStream.close();
-                    } catch (IOException e) {
-                        LOG.d(LOG_TAG, "Exception while closing file input stream.");
-                    }
-                }
-            }
-            if (unscaledBitmap == null) {
-                return null;
-            }
+        int scaledWidth = (!rotated) ? widthHeight[0] : widthHeight[1];
+        int scaledHeight = (!rotated) ? widthHeight[1] : widthHeight[0];
+        boolean rotateNeeded = request.correctOrientation && (rotate != 0);
+
+        // Scale and rotate in a single pass so only the source and the destination
+        // bitmaps are ever held at the same time
+        Matrix matrix = new Matrix();
+        matrix.setScale(scaledWidth / (float) unscaledBitmap.getWidth(),
+                scaledHeight / (float) unscaledBitmap.getHeight());
+        if (rotateNeeded) {
+            matrix.postRotate(rotate);
+        }
+
+        Bitmap scaledBitmap;
+        try {
+            scaledBitmap = Bitmap.createBitmap(unscaledBitmap, 0, 0, unscaledBitmap.getWidth(), unscaledBitmap.getHeight(), matrix, true);
+            request.orientationCorrected = rotateNeeded;
+        } catch (OutOfMemoryError oom) {
+            LOG.w(LOG_TAG, "Not enough memory to rotate the image, returning it unrotated");
+            scaledBitmap = Bitmap.createScaledBitmap(unscaledBitmap, scaledWidth, scaledHeight, true);
+            request.orientationCorrected = false;
+        }
+        if (scaledBitmap != unscaledBitmap) {
+            unscaledBitmap.recycle();
+            unscaledBitmap = null;
+        }
+        return scaledBitmap;
+    }
 
-            int scaledWidth = (!rotated) ? widthHeight[0] : widthHeight[1];
-            int scaledHeight = (!rotated) ? widthHeight[1] : widthHeight[0];
+    private static Bitmap decodeImage(FileDescriptor fd, byte[] jpeg, BitmapFactory.Options options) {
+        if (jpeg != null) {
+            return BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        }
+        return BitmapFactory.decodeFileDescriptor(fd, null, options);
+    }
 
-            Bitmap scaledBitmap = Bitmap.createScaledBitmap(unscaledBitmap, scaledWidth, scaledHeight, true);
-            if (scaledBitmap != unscaledBitmap) {
-                unscaledBitmap.recycle();
-                unscaledBitmap = null;
-            }
-            if (this.correctOrientation && (rotate != 0)) {
-                Matrix matrix = new Matrix();
-                matrix.setRotate(rotate);
-                try {
-                    scaledBitmap = Bitmap.createBitmap(scaledBitmap, 0, 0, scaledBitmap.getWidth(), scaledBitmap.getHeight(), matrix, true);
-                    this.orientationCorrected = true;
-                } catch (OutOfMemoryError oom) {
-                    this.orientationCorrected = false;
-                }
+    /**
+     * Closes whatever getScaledAndRotatedBitmap opened to read the image and deletes the
+     * temporary copy, if one was needed.
+     *
+     * @param fileStream
+     * @param pfd
+     * @param localFile
+     */
+    private void closeImageSource(FileInputStream fileStream, ParcelFileDescriptor pfd, File localFile) {
+        if (fileStream != null) {
+            try {
+                fileStream.close();
+            } catch (IOException e) {
+                LOG.d(LOG_TAG, "Exception while closing file input stream.");
             }
-            return scaledBitmap;
         }
-        finally {
-            // delete the temporary copy
-            if (localFile != null) {
-                localFile.delete();
+        if (pfd != null) {
+            try {
+                pfd.close();
+            } catch (IOException e) {
+                LOG.d(LOG_TAG, "Exception while closing file descriptor.");
             }
         }
-
+        // delete the temporary copy
+        if (localFile != null) {
+            localFile.delete();
+        }
     }
 
     /**
@@ -1119,9 +2042,9 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      * @param origHeight
      * @return
      */
-    public int[] calculateAspectRatio(int origWidth, int origHeight) {
-        int newWidth = this.targetWidth;
-        int newHeight = this.targetHeight;
+    private int[] calculateAspectRatio(PictureRequest request, int origWidth, int origHeight) {
+        int newWidth = request.targetWidth;
+        int newHeight = request.targetHeight;
 
         // If no new width or height were specified return the original bitmap
         if (newWidth <= 0 && newHeight <= 0) {
@@ -1181,17 +2104,30 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
     }
 
     /**
-     * Creates a cursor that can be used to determine how many images we have.
+     * Creates a cursor over the images added to the content store since the capture started,
+     * newest first. The query is bounded by the date the images were added and by the
+     * number of rows, so its cost doesn't depend on the size of the gallery.
      *
-     * @return a cursor
+     * @param limit The number of rows to return at most
+     * @return a cursor, may be null
      */
-    private Cursor queryImgDB(Uri contentStore) {
-        return this.cordova.getActivity().getContentResolver().query(
-                contentStore,
-                new String[]{MediaStore.Images.Media._ID},
-                null,
-                null,
-                null);
+    private Cursor queryImgDB(PictureRequest request, Uri contentStore, int limit) {
+        String selection = MediaStore.Images.Media.DATE_ADDED + " >= ?";
+        String[] selectionArgs = new String[]{String.valueOf(request.captureStartTime)};
+        String sortOrder = MediaStore.Images.Media._ID + " DESC";
+        String[] projection = new String[]{MediaStore.Images.Media._ID};
+        ContentResolver resolver = this.cordova.getActivity().getContentResolver();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // Recent media providers reject a LIMIT in the sort order
+            Bundle queryArgs = new Bundle();
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+            queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, sortOrder);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
+            return resolver.query(contentStore, projection, queryArgs, null);
+        }
+        return resolver.query(contentStore, projection, selection, selectionArgs, sortOrder + " LIMIT " + limit);
     }
 
     /**
@@ -1199,7 +2135,7 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      *
      * @param newImage
      */
-    private void cleanup(int imageType, Uri oldImage, Uri newImage, Bitmap bitmap) {
+    private void cleanup(PictureRequest request, int imageType, Uri oldImage, Uri newImage, Bitmap bitmap) {
         if (bitmap != null) {
             bitmap.recycle();
         }
@@ -1207,9 +2143,9 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
         // Clean up initial camera-written image file.
         (new File(FileHelper.stripFileProtocol(oldImage.toString()))).delete();
 
-        checkForDuplicateImage(imageType);
+        checkForDuplicateImage(request, imageType);
         // Scan for the gallery to update pic refs in gallery
-        if (this.saveToPhotoAlbum && newImage != null) {
+        if (request.saveToPhotoAlbum && newImage != null) {
             this.scanForGallery(newImage);
         }
 
@@ -1223,26 +2159,36 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      *
      * @param type FILE_URI or DATA_URL
      */
-    private void checkForDuplicateImage(int type) {
+    private void checkForDuplicateImage(PictureRequest request, int type) {
         int diff = 1;
         Uri contentStore = whichContentStore();
-        Cursor cursor = queryImgDB(contentStore);
-        int currentNumOfImages = cursor.getCount();
 
-        if (type == FILE_URI && this.saveToPhotoAlbum) {
+        if (type == FILE_URI && request.saveToPhotoAlbum) {
             diff = 2;
         }
 
-        // delete the duplicate file if the difference is 2 for file URI or 1 for Data URL
-        if ((currentNumOfImages - numPics) == diff) {
-            cursor.moveToLast();
-            int id = Integer.valueOf(cursor.getString(cursor.getColumnIndex(MediaStore.Images.Media._ID)));
-            if (diff == 2) {
-                id--;
+        Cursor cursor = null;
+        try {
+            // One row more than expected tells that other images were added meanwhile
+            cursor = queryImgDB(request, contentStore, diff + 1);
+            if (cursor == null) {
+                return;
+            }
+
+            // delete the duplicate file if 2 images were added for file URI or 1 for Data URL
+            if (cursor.getCount() == diff) {
+                // The newest image, or the one before it when the picture was also saved to the album
+                cursor.moveToPosition(diff - 1);
+                long id = cursor.getLong(cursor.getColumnIndex(MediaStore.Images.Media._ID));
+                Uri uri = Uri.parse(contentStore + "/" + id);
+                this.cordova.getActivity().getContentResolver().delete(uri, null, null);
+            }
+        } catch (Exception e) {
+            LOG.d(LOG_TAG, "Can't check for a duplicate image: " + e.getMessage());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
             }
-            Uri uri = Uri.parse(contentStore + "/" + id);
-            this.cordova.getActivity().getContentResolver().delete(uri, null, null);
-            cursor.close();
         }
     }
 
@@ -1262,28 +2208,222 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
     /**
      * Compress bitmap using jpeg, convert to Base64 encoded string, and return to JavaScript.
      *
+     * The compressed data is Base64 encoded on the fly, so only the encoded payload is ever
+     * held in memory, not the compressed bytes and their copies.
+     *
+     * @param bitmap
+     */
+    private void processPicture(PictureRequest request, Bitmap bitmap, int encodingType) {
+        Base64Buffer base64_data = new Base64Buffer(estimateBase64Size(request, bitmap, encodingType));
+        CompressFormat compressFormat = encodingType == JPEG ?
+                CompressFormat.JPEG :
+                CompressFormat.PNG;
+
+        try {
+            Base64OutputStream base64_out = new Base64OutputStream(base64_data, Base64.NO_WRAP);
+            if (bitmap.compress(compressFormat, request.mQuality, base64_out)) {
+                // Closing flushes the last partial group of the encoding
+                base64_out.close();
+                sendBase64(request, base64_data);
+            }
+        } catch (Exception e) {
+            this.failPicture(request, "Error compressing image.");
+        }
+        base64_data = null;
+    }
+
+    /**
+     * Base64 encodes a picture held in memory as it is, and sends it to JavaScript.
+     *
+     * @param jpeg      The JPEG data
+     */
+    private void sendUncompressedBase64(PictureRequest request, byte[] jpeg) {
+        try {
+            Base64Buffer base64_data = new Base64Buffer(jpeg.length / 3 * 4 + 4);
+            Base64OutputStream base64_out = new Base64OutputStream(base64_data, Base64.NO_WRAP);
+            base64_out.write(jpeg);
+            base64_out.close();
+            sendBase64(request, base64_data);
+        } catch (Exception e) {
+            e.printStackTrace();
+            this.failPicture(request, "Error retrieving image.");
+        }
+    }
+
+    /**
+     * Return an image that needs no modification to JavaScript as a Base64 string,
+     * without decoding and compressing it again.
+     *
+     * @param uriString     The path or URI of the image
+     */
+    private void sendUncompressedBase64(PictureRequest request, String uriString) {
+        InputStream fis = null;
+        try {
+            fis = FileHelper.getInputStreamFromUriString(uriString, cordova);
+            Base64Buffer base64_data = new Base64Buffer(Math.max(fis.available(), 4096) / 3 * 4 + 4);
+            Base64OutputStream base64_out = new Base64OutputStream(base64_data, Base64.NO_WRAP);
+            byte[] buffer = new byte[64 * 1024];
+            int len;
+            while ((len = fis.read(buffer)) != -1) {
+                base64_out.write(buffer, 0, len);
+            }
+            base64_out.close();
+            sendBase64(request, base64_data);
+        } catch (Exception e) {
+            e.printStackTrace();
+            this.failPicture(request, "Error retrieving image.");
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                    LOG.d(LOG_TAG, "Exception while closing file input stream.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Send the Base64 encoded picture to JavaScript, at once or in chunks.
+     *
+     * @param base64_data
+     * @throws JSONException
+     * @throws UnsupportedEncodingException
+     */
+    private void sendBase64(PictureRequest request, Base64Buffer base64_data) throws JSONException, UnsupportedEncodingException {
+        if (request.dataChunkSize > 0) {
+            sendDataChunks(request, base64_data);
+        } else {
+            String js_out = base64_data.toString("US-ASCII");
+            base64_data = null;
+            this.sendResult(request, new PluginResult(PluginResult.Status.OK, js_out));
+            js_out = null;
+        }
+    }
+
+    /**
+     * Compress bitmap and return the encoded bytes to JavaScript as an ArrayBuffer.
+     *
      * @param bitmap
+     * @param encodingType
      */
-    public void processPicture(Bitmap bitmap, int encodingType) {
-        ByteArrayOutputStream jpeg_data = new ByteArrayOutputStream();
+    private void processPictureBytes(PictureRequest request, Bitmap bitmap, int encodingType) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream(estimateCompressedSize(request, bitmap, encodingType));
         CompressFormat compressFormat = encodingType == JPEG ?
                 CompressFormat.JPEG :
                 CompressFormat.PNG;
 
         try {
-            if (bitmap.compress(compressFormat, mQuality, jpeg_data)) {
-                byte[] code = jpeg_data.toByteArray();
-                byte[] output = Base64.encode(code, Base64.NO_WRAP);
-                String js_out = new String(output);
-                this.callbackContext.success(js_out);
-                js_out = null;
-                output = null;
+            if (bitmap.compress(compressFormat, request.mQuality, data)) {
+                byte[] code = data.toByteArray();
+                data = null;
+                this.sendResult(request, new PluginResult(PluginResult.Status.OK, code));
                 code = null;
             }
         } catch (Exception e) {
-            this.failPicture("Error compressing image.");
+            this.failPicture(request, "Error compressing image.");
+        }
+        data = null;
+    }
+
+    /**
+     * Return the bytes of an image that needs no modification to JavaScript as an ArrayBuffer,
+     * without decoding and compressing it again.
+     *
+     * @param uriString     The path or URI of the image
+     */
+    private void sendUncompressedBytes(PictureRequest request, String uriString) {
+        InputStream fis = null;
+        try {
+            fis = FileHelper.getInputStreamFromUriString(uriString, cordova);
+            ByteArrayOutputStream data = new ByteArrayOutputStream(Math.max(fis.available(), 4096));
+            byte[] buffer = new byte[64 * 1024];
+            int len;
+            while ((len = fis.read(buffer)) != -1) {
+                data.write(buffer, 0, len);
+            }
+            byte[] code = data.toByteArray();
+            data = null;
+            this.sendResult(request, new PluginResult(PluginResult.Status.OK, code));
+        } catch (Exception e) {
+            e.printStackTrace();
+            this.failPicture(request, "Error retrieving image.");
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                    LOG.d(LOG_TAG, "Exception while closing file input stream.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Send the Base64 encoded picture to JavaScript as a sequence of {chunk, total, data}
+     * messages, none of them longer than dataChunkSize characters. www/Camera.js puts them
+     * back together.
+     *
+     * @param base64_data
+     * @throws JSONException
+     * @throws UnsupportedEncodingException
+     */
+    private void sendDataChunks(PictureRequest request, Base64Buffer base64_data) throws JSONException, UnsupportedEncodingException {
+        // Keep chunks on 4 character boundaries so each of them can be decoded on its own
+        int chunkSize = Math.max(4, request.dataChunkSize - request.dataChunkSize % 4);
+        int total = Math.max(1, (base64_data.size() + chunkSize - 1) / chunkSize);
+        for (int i = 0; i < total; i++) {
+            int start = i * chunkSize;
+            JSONObject chunk = new JSONObject();
+            chunk.put("chunk", i);
+            chunk.put("total", total);
+            chunk.put("data", base64_data.substring(start, Math.min(start + chunkSize, base64_data.size())));
+
+            PluginResult r = new PluginResult(PluginResult.Status.OK, chunk);
+            r.setKeepCallback(i < total - 1);
+            this.sendResult(request, r);
+        }
+    }
+
+    /**
+     * Guess the size of the compressed picture, so the buffer it is compressed to doesn't
+     * have to grow (and be copied) while compressing.
+     *
+     * @param bitmap
+     * @param encodingType
+     * @return the estimated number of bytes
+     */
+    private int estimateCompressedSize(PictureRequest request, Bitmap bitmap, int encodingType) {
+        // Camera pictures typically compress to 0.1-0.6 bytes per pixel as JPEG depending on
+        // the quality, and to about 1.5 bytes per pixel as PNG
+        double bytesPerPixel = encodingType == JPEG ? 0.1 + 0.5 * request.mQuality / 100.0 : 1.5;
+        double compressedSize = (double) bitmap.getWidth() * bitmap.getHeight() * bytesPerPixel;
+        return (int) Math.min(compressedSize, Integer.MAX_VALUE / 2);
+    }
+
+    /**
+     * Guess the size of the Base64 encoded picture, see estimateCompressedSize.
+     *
+     * @param bitmap
+     * @param encodingType
+     * @return the estimated number of Base64 characters
+     */
+    private int estimateBase64Size(PictureRequest request, Bitmap bitmap, int encodingType) {
+        return estimateCompressedSize(request, bitmap, encodingType) / 3 * 4 + 4;
+    }
+
+    /**
+     * A buffer for the Base64 encoded picture that can hand out parts of its content as
+     * strings without copying the whole buffer first.
+     */
+    private static class Base64Buffer extends ByteArrayOutputStream {
+        Base64Buffer(int size) {
+            super(size);
+        }
+
+        String substring(int start, int end) throws UnsupportedEncodingException {
+            return new String(this.buf, start, end - start, "US-ASCII");
         }
-        jpeg_data = null;
     }
 
     /**
@@ -1291,8 +2431,8 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      *
      * @param err
      */
-    public void failPicture(String err) {
-        this.callbackContext.error(err);
+    private void failPicture(PictureRequest request, String err) {
+        request.callbackContext.error(err);
     }
 
     private void scanForGallery(Uri newImage) {
@@ -1320,18 +2460,19 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
 
     public void onRequestPermissionResult(int requestCode, String[] permissions,
                                           int[] grantResults) throws JSONException {
+        PictureRequest request = this.request;
         for (int r : grantResults) {
             if (r == PackageManager.PERMISSION_DENIED) {
-                this.callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, PERMISSION_DENIED_ERROR));
+                request.callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, PERMISSION_DENIED_ERROR));
                 return;
             }
         }
         switch (requestCode) {
             case TAKE_PIC_SEC:
-                takePicture(this.destType, this.encodingType);
+                takePicture(request.destType, request.encodingType);
                 break;
             case SAVE_TO_ALBUM_SEC:
-                this.getImage(this.srcType, this.destType, this.encodingType);
+                this.getImage(request.srcType, request.destType, request.encodingType);
                 break;
         }
     }
@@ -1343,52 +2484,68 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      */
     public Bundle onSaveInstanceState() {
         Bundle state = new Bundle();
-        state.putInt("destType", this.destType);
-        state.putInt("srcType", this.srcType);
-        state.putInt("mQuality", this.mQuality);
-        state.putInt("targetWidth", this.targetWidth);
-        state.putInt("targetHeight", this.targetHeight);
-        state.putInt("encodingType", this.encodingType);
-        state.putInt("mediaType", this.mediaType);
-        state.putInt("numPics", this.numPics);
-        state.putBoolean("allowEdit", this.allowEdit);
-        state.putBoolean("correctOrientation", this.correctOrientation);
-        state.putBoolean("saveToPhotoAlbum", this.saveToPhotoAlbum);
+        PictureRequest request = this.request;
+        if (request == null) {
+            return state;
+        }
+        state.putInt("destType", request.destType);
+        state.putInt("srcType", request.srcType);
+        state.putInt("mQuality", request.mQuality);
+        state.putInt("targetWidth", request.targetWidth);
+        state.putInt("targetHeight", request.targetHeight);
+        state.putInt("encodingType", request.encodingType);
+        state.putInt("mediaType", request.mediaType);
+        state.putLong("captureStartTime", request.captureStartTime);
+        state.putBoolean("allowEdit", request.allowEdit);
+        state.putBoolean("correctOrientation", request.correctOrientation);
+        state.putBoolean("saveToPhotoAlbum", request.saveToPhotoAlbum);
+        state.putBoolean("losslessOrientation", request.losslessOrientation);
+        state.putInt("dataChunkSize", request.dataChunkSize);
+        state.putBoolean("burst", request.burst);
+        if (request.captureKey != null) {
+            state.putString("captureKey", request.captureKey);
+        }
 
-        if (this.croppedUri != null) {
-            state.putString("croppedUri", this.croppedUri.toString());
+        if (request.croppedUri != null) {
+            state.putString("croppedUri", request.croppedUri.toString());
         }
 
-        if (this.imageUri != null) {
-            state.putString("imageUri", this.imageUri.getFileUri().toString());
+        if (request.imageUri != null) {
+            state.putString("imageUri", request.imageUri.getFileUri().toString());
         }
 
         return state;
     }
 
     public void onRestoreStateForActivityResult(Bundle state, CallbackContext callbackContext) {
-        this.destType = state.getInt("destType");
-        this.srcType = state.getInt("srcType");
-        this.mQuality = state.getInt("mQuality");
-        this.targetWidth = state.getInt("targetWidth");
-        this.targetHeight = state.getInt("targetHeight");
-        this.encodingType = state.getInt("encodingType");
-        this.mediaType = state.getInt("mediaType");
-        this.numPics = state.getInt("numPics");
-        this.allowEdit = state.getBoolean("allowEdit");
-        this.correctOrientation = state.getBoolean("correctOrientation");
-        this.saveToPhotoAlbum = state.getBoolean("saveToPhotoAlbum");
+        PictureRequest request = new PictureRequest();
+        request.destType = state.getInt("destType");
+        request.srcType = state.getInt("srcType");
+        request.mQuality = state.getInt("mQuality");
+        request.targetWidth = state.getInt("targetWidth");
+        request.targetHeight = state.getInt("targetHeight");
+        request.encodingType = state.getInt("encodingType");
+        request.mediaType = state.getInt("mediaType");
+        request.captureStartTime = state.getLong("captureStartTime");
+        request.allowEdit = state.getBoolean("allowEdit");
+        request.correctOrientation = state.getBoolean("correctOrientation");
+        request.saveToPhotoAlbum = state.getBoolean("saveToPhotoAlbum");
+        request.losslessOrientation = state.getBoolean("losslessOrientation");
+        request.dataChunkSize = state.getInt("dataChunkSize");
+        request.burst = state.getBoolean("burst");
+        request.captureKey = state.getString("captureKey");
 
         if (state.containsKey("croppedUri")) {
-            this.croppedUri = Uri.parse(state.getString("croppedUri"));
+            request.croppedUri = Uri.parse(state.getString("croppedUri"));
         }
 
         if (state.containsKey("imageUri")) {
             //I have no idea what type of URI is being passed in
-            this.imageUri = new CordovaUri(Uri.parse(state.getString("imageUri")));
+            request.imageUri = new CordovaUri(Uri.parse(state.getString("imageUri")));
         }
 
-        this.callbackContext = callbackContext;
+        request.callbackContext = callbackContext;
+        this.request = request;
     }
 
  /*
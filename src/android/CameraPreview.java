@@ -1,20 +1,14 @@
 package org.apache.cordova.camera;
 
 import android.content.Context;
-import android.hardware.Camera;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
-import java.io.IOException;
-
 /** A basic Camera preview class */
 public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback {
     private SurfaceHolder mHolder;
-    private Camera mCamera;
-
-    private static final String LOG_TAG = "CameraPreview";
+    private CaptureEngine mEngine;
 
     public CameraPreview(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
@@ -28,26 +22,31 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         super(context);
     }
 
-    public void init(Camera camera) {
-        if (mCamera == camera) { return; }
-
-        mCamera = camera;
-
-        // Install a SurfaceHolder.Callback so we get notified when the6
-        // underlying surface is created and destroyed.
-        mHolder = getHolder();
-        mHolder.addCallback(this);
-        // deprecated setting, but required on Android versions prior to 3.0
-        mHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
+    /**
+     * Sets the open engine the preview is drawn by, or null once it is released.
+     * A surface that already exists is handed to the new engine.
+     */
+    public void init(CaptureEngine engine) {
+        if (mEngine == engine) { return; }
+
+        mEngine = engine;
+
+        if (mHolder == null) {
+            // Install a SurfaceHolder.Callback so we get notified when the
+            // underlying surface is created and destroyed.
+            mHolder = getHolder();
+            mHolder.addCallback(this);
+            // deprecated setting, but required on Android versions prior to 3.0
+            mHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
+        } else if (engine != null && mHolder.getSurface() != null && mHolder.getSurface().isValid()) {
+            engine.startPreview(mHolder);
+        }
     }
 
     public void surfaceCreated(SurfaceHolder holder) {
         // The Surface has been created, now tell the camera where to draw the preview.
-        try {
-            mCamera.setPreviewDisplay(holder);
-            mCamera.startPreview();
-        } catch (IOException e) {
-            Log.d(LOG_TAG, "Error setting camera preview: " + e.getMessage());
+        if (mEngine != null) {
+            mEngine.startPreview(holder);
         }
     }
 
@@ -59,28 +58,15 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         // If your preview can change or rotate, take care of those events here.
         // Make sure to stop the preview before resizing or reformatting it.
 
-        if (mHolder.getSurface() == null){
-            // preview surface does not exist
+        if (mHolder.getSurface() == null || mEngine == null){
+            // preview surface does not exist, or the camera is released
             return;
         }
 
         // stop preview before making changes
-        try {
-            mCamera.stopPreview();
-        } catch (Exception e){
-            // ignore: tried to stop a non-existent preview
-        }
-
-        // set preview size and make any resize, rotate or
-        // reformatting changes here
+        mEngine.stopPreview();
 
         // start preview with new settings
-        try {
-            mCamera.setPreviewDisplay(mHolder);
-            mCamera.startPreview();
-
-        } catch (Exception e){
-            Log.d(LOG_TAG, "Error starting camera preview: " + e.getMessage());
-        }
+        mEngine.startPreview(mHolder);
     }
 }
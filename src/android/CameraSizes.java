@@ -0,0 +1,134 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import android.graphics.Point;
+
+import java.util.List;
+
+/**
+ * Picks sizes among the sizes supported by a camera. Sizes are given as points,
+ * x being the width and y the height, so both camera APIs can share the logic.
+ */
+public class CameraSizes {
+
+    // Aspect ratios are compared on a log scale, this is about a 1% difference
+    private static final double ASPECT_TOLERANCE = 0.01;
+
+    /**
+     * Returns the smallest size covering the target size in either orientation, since the
+     * picture may be rotated afterwards. Sizes with the aspect ratio of the full sensor
+     * are preferred, so the picture shows what the preview showed.
+     *
+     * @param sizes         The supported picture sizes
+     * @param targetWidth   The width the picture will be scaled to, 0 or less if not constrained
+     * @param targetHeight  The height the picture will be scaled to, 0 or less if not constrained
+     * @return the picture size, the largest one if none covers the target
+     */
+    public static Point choosePictureSize(List<Point> sizes, int targetWidth, int targetHeight) {
+        Point largest = sizes.get(0);
+        for (Point size : sizes) {
+            if (area(size) > area(largest)) {
+                largest = size;
+            }
+        }
+        if (targetWidth <= 0 && targetHeight <= 0) {
+            return largest;
+        }
+
+        // With a single constraint the other side follows the aspect ratio, which may be either side
+        int longSide = Math.max(targetWidth, targetHeight);
+        int shortSide = targetWidth > 0 && targetHeight > 0 ? Math.min(targetWidth, targetHeight) : longSide;
+
+        Point best = null;
+        boolean bestHasSensorRatio = false;
+        for (Point size : sizes) {
+            if (Math.max(size.x, size.y) < longSide || Math.min(size.x, size.y) < shortSide) {
+                continue;
+            }
+            boolean hasSensorRatio = (long) size.x * largest.y == (long) size.y * largest.x;
+            if (best == null || (hasSensorRatio && !bestHasSensorRatio)
+                    || (hasSensorRatio == bestHasSensorRatio && area(size) < area(best))) {
+                best = size;
+                bestHasSensorRatio = hasSensorRatio;
+            }
+        }
+        return best != null ? best : largest;
+    }
+
+    /**
+     * Returns the size of a portrait preview view with the aspect ratio of the pictures,
+     * as large as possible within the given area.
+     *
+     * @param pictureSize   The picture size, in the orientation of the sensor
+     * @param maxWidth      The width available for the view
+     * @param maxHeight     The height available for the view
+     * @return the view size
+     */
+    public static Point fitPreviewView(Point pictureSize, int maxWidth, int maxHeight) {
+        int longSide = Math.max(pictureSize.x, pictureSize.y);
+        int shortSide = Math.min(pictureSize.x, pictureSize.y);
+        int height = (int) ((long) maxWidth * longSide / shortSide);
+        if (height <= maxHeight) {
+            return new Point(maxWidth, height);
+        }
+        return new Point((int) ((long) maxHeight * shortSide / longSide), maxHeight);
+    }
+
+    /**
+     * Returns the preview size with the aspect ratio closest to the surface showing the preview,
+     * and among those the one closest to the size of the surface. Larger sizes waste bandwidth
+     * on every frame, smaller ones are upscaled.
+     *
+     * @param sizes         The supported preview sizes
+     * @param surfaceWidth  The width of the surface, in the orientation of the sensor
+     * @param surfaceHeight The height of the surface, in the orientation of the sensor
+     * @return the preview size
+     */
+    public static Point choosePreviewSize(List<Point> sizes, int surfaceWidth, int surfaceHeight) {
+        double targetRatio = (double) surfaceWidth / surfaceHeight;
+
+        double minRatioDiff = Double.MAX_VALUE;
+        for (Point size : sizes) {
+            minRatioDiff = Math.min(minRatioDiff, ratioDiff(size, targetRatio));
+        }
+
+        Point best = null;
+        long bestSizeDiff = Long.MAX_VALUE;
+        for (Point size : sizes) {
+            if (ratioDiff(size, targetRatio) > minRatioDiff + ASPECT_TOLERANCE) {
+                continue;
+            }
+            long sizeDiff = Math.abs(size.x - surfaceWidth) + Math.abs(size.y - surfaceHeight);
+            if (sizeDiff < bestSizeDiff) {
+                best = size;
+                bestSizeDiff = sizeDiff;
+            }
+        }
+        return best;
+    }
+
+    private static double ratioDiff(Point size, double targetRatio) {
+        return Math.abs(Math.log((double) size.x / size.y / targetRatio));
+    }
+
+    private static long area(Point size) {
+        return (long) size.x * size.y;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Hands captured pictures from CameraActivity to CameraLauncher without going through a
+ * file, when the picture is only sent back to JavaScript. Both run in the same process,
+ * the picture is kept here under a key passed with the capture request.
+ *
+ * A key holds at most one picture, a retaken picture replaces the previous one.
+ */
+public class CaptureBuffers {
+
+    private static final Map<String, byte[]> buffers = new HashMap<String, byte[]>();
+
+    /**
+     * @return a new key for a capture request
+     */
+    public static String newKey() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Keeps the JPEG data of a picture until the launcher takes it.
+     *
+     * @param key       The key of the capture request
+     * @param jpeg      The JPEG data, not copied
+     */
+    public static synchronized void put(String key, byte[] jpeg) {
+        buffers.put(key, jpeg);
+    }
+
+    /**
+     * Removes the picture of a capture request and returns it.
+     *
+     * @param key       The key of the capture request
+     * @return the JPEG data, or null if no picture was kept, for instance after the process restarted
+     */
+    public static synchronized byte[] take(String key) {
+        return buffers.remove(key);
+    }
+
+    /**
+     * Drops the picture of a cancelled capture request, if any.
+     *
+     * @param key       The key of the capture request
+     */
+    public static synchronized void discard(String key) {
+        buffers.remove(key);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import android.graphics.Point;
+import android.view.SurfaceHolder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The camera used by CameraActivity. Implementations wrap a camera API
+ * (android.hardware.Camera or camera2) behind the few operations the activity needs,
+ * so the activity does not depend on which one is in use.
+ *
+ * Methods are called from the UI thread and return immediately, the camera itself is
+ * opened and used on a thread of the engine.
+ */
+public interface CaptureEngine {
+
+    /** Engine preference values, passed to CameraActivity as the CAPTURE_ENGINE extra */
+    String AUTO = "auto";
+    String CAMERA2 = "camera2";
+    String LEGACY = "legacy";
+
+    /** Pictures of a burst that may be taken before the previous ones are written */
+    int MAX_PENDING_PICTURES = 3;
+
+    /**
+     * Receives the events of a capture engine.
+     */
+    interface Listener {
+        /**
+         * The camera is open, the preview can be started. Called on the UI thread.
+         */
+        void onCameraOpened();
+
+        /**
+         * The first frame of the preview has been received. Called on the UI thread.
+         */
+        void onPreviewStarted();
+
+        /**
+         * The camera could not be opened or a capture failed. Called on the UI thread.
+         *
+         * @param message   The error message
+         */
+        void onCameraError(String message);
+
+        /**
+         * The camera was taken over by another client or failed, no picture can be taken
+         * anymore. Called on the UI thread.
+         *
+         * @param message   The error message
+         */
+        void onCameraDisconnected(String message);
+
+        /**
+         * The picture has been captured and the preview is stopped. Called on the UI thread.
+         */
+        void onShutter();
+
+        /**
+         * The JPEG data of the captured picture. Called on a background thread after onShutter.
+         * The buffer is only valid during the call.
+         *
+         * @param jpeg      The JPEG data, from its position to its limit
+         */
+        void onPictureData(ByteBuffer jpeg);
+    }
+
+    /**
+     * Sets the size the picture will be scaled to, so the camera captures at the smallest
+     * supported size covering it. Must be called before the preview starts.
+     *
+     * @param width     The target width, 0 or less if not constrained
+     * @param height    The target height, 0 or less if not constrained
+     */
+    void setTargetSize(int width, int height);
+
+    /**
+     * Sets the quality the camera encodes the JPEG at. Must be called before the preview starts.
+     *
+     * @param quality   The JPEG quality, 1-100
+     */
+    void setJpegQuality(int quality);
+
+    /**
+     * Starts opening the camera. The listener receives onCameraOpened or onCameraError.
+     *
+     * @param listener  The listener for the events of this engine
+     */
+    void open(Listener listener);
+
+    /**
+     * Chooses the preview size for a portrait preview view, with the aspect ratio of the
+     * pictures and as close as possible to the size of the view. Must be called after
+     * onCameraOpened, before the preview starts.
+     *
+     * @param maxWidth  The width available for the preview view
+     * @param maxHeight The height available for the preview view
+     * @return the chosen size as displayed, whose aspect ratio the view should follow,
+     *         or null if the camera could not be opened
+     */
+    Point choosePreviewSize(int maxWidth, int maxHeight);
+
+    /**
+     * Starts the preview on the given surface, once the camera is open.
+     *
+     * @param holder    The holder of the preview surface
+     */
+    void startPreview(SurfaceHolder holder);
+
+    void stopPreview();
+
+    /**
+     * Sets the clockwise rotation of the captured picture, in degrees. It is only applied
+     * when a picture is taken, so this can be called on every orientation change.
+     *
+     * @param degrees   0, 90, 180 or 270
+     */
+    void setRotation(int degrees);
+
+    /**
+     * Captures a picture, once the focus and the exposure are set for it. The listener
+     * receives onShutter then onPictureData.
+     */
+    void takePicture();
+
+    /**
+     * Releases the camera and the resources of this engine.
+     */
+    void close();
+}
@@ -0,0 +1,207 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Creates capture engines, and keeps one camera open ahead of time for the next
+ * CameraActivity when the prepareCamera action is used.
+ *
+ * Only used on the UI thread.
+ */
+public class CaptureEngines {
+
+    private static final String LOG_TAG = "CaptureEngines";
+
+    // A prepared camera nobody uses is released after this delay, it blocks other apps
+    private static final long PREPARED_TIMEOUT = 30000;
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private static CaptureEngine prepared;
+    private static String preparedType;
+    private static PreparedListener preparedListener;
+
+    /**
+     * Uses the camera2 engine unless the legacy engine is requested, or the device
+     * only has legacy camera2 support and the camera2 engine is not requested.
+     *
+     * @param context   The context
+     * @param engine    The CameraCaptureEngine preference value, null for auto
+     * @return the engine to capture with
+     */
+    public static CaptureEngine create(Context context, String engine) {
+        if (!CaptureEngine.LEGACY.equals(engine) && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                && (CaptureEngine.CAMERA2.equals(engine) || Camera2CaptureEngine.isSupported(context))) {
+            Log.d(LOG_TAG, "Using the camera2 capture engine");
+            return new Camera2CaptureEngine(context);
+        }
+        Log.d(LOG_TAG, "Using the legacy capture engine");
+        return new LegacyCaptureEngine();
+    }
+
+    /**
+     * Starts opening a camera for the next capture, so CameraActivity can show the preview
+     * sooner. Does nothing if a camera is already prepared.
+     *
+     * @param context   The context
+     * @param engine    The CameraCaptureEngine preference value
+     */
+    public static void prepare(Context context, String engine) {
+        if (prepared != null) {
+            if (isSameType(engine)) {
+                mainHandler.removeCallbacks(releasePrepared);
+                mainHandler.postDelayed(releasePrepared, PREPARED_TIMEOUT);
+                return;
+            }
+            release();
+        }
+
+        prepared = create(context.getApplicationContext(), engine);
+        preparedType = engine;
+        preparedListener = new PreparedListener();
+        prepared.open(preparedListener);
+        mainHandler.postDelayed(releasePrepared, PREPARED_TIMEOUT);
+    }
+
+    /**
+     * Hands the prepared camera over, if there is one for the requested engine. The listener
+     * receives the events the camera already had, once the current UI event is handled.
+     * A prepared camera that failed to open is released instead.
+     *
+     * @param engine    The CameraCaptureEngine preference value
+     * @param listener  The listener for the events of the engine
+     * @return the prepared engine, or null if none is prepared
+     */
+    public static CaptureEngine take(String engine, CaptureEngine.Listener listener) {
+        if (prepared == null) {
+            return null;
+        }
+        if (!isSameType(engine) || preparedListener.error != null) {
+            // A failed camera is opened again by the activity, the camera may be free now
+            release();
+            return null;
+        }
+        mainHandler.removeCallbacks(releasePrepared);
+
+        CaptureEngine engineTaken = prepared;
+        preparedListener.setDelegate(listener);
+        prepared = null;
+        preparedType = null;
+        preparedListener = null;
+        return engineTaken;
+    }
+
+    /**
+     * Releases the prepared camera, if any.
+     */
+    public static void release() {
+        mainHandler.removeCallbacks(releasePrepared);
+        if (prepared != null) {
+            prepared.close();
+            prepared = null;
+            preparedType = null;
+            preparedListener = null;
+        }
+    }
+
+    private static boolean isSameType(String engine) {
+        return preparedType == null ? engine == null : preparedType.equals(engine);
+    }
+
+    private static final Runnable releasePrepared = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(LOG_TAG, "Releasing the unused prepared camera");
+            release();
+        }
+    };
+
+    /**
+     * Remembers the events of a prepared camera until an activity takes it over.
+     */
+    private static class PreparedListener implements CaptureEngine.Listener {
+        private CaptureEngine.Listener delegate;
+        private boolean opened;
+        private String error;
+
+        void setDelegate(final CaptureEngine.Listener listener) {
+            delegate = listener;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (error != null) {
+                        listener.onCameraError(error);
+                    } else if (opened) {
+                        listener.onCameraOpened();
+                    }
+                }
+            });
+        }
+
+        public void onCameraOpened() {
+            if (delegate != null) {
+                delegate.onCameraOpened();
+            } else {
+                opened = true;
+            }
+        }
+
+        public void onPreviewStarted() {
+            if (delegate != null) {
+                delegate.onPreviewStarted();
+            }
+        }
+
+        public void onCameraError(String message) {
+            if (delegate != null) {
+                delegate.onCameraError(message);
+            } else {
+                error = message;
+            }
+        }
+
+        public void onCameraDisconnected(String message) {
+            if (delegate != null) {
+                delegate.onCameraDisconnected(message);
+            } else {
+                // Taking the camera over opens it again
+                error = message;
+            }
+        }
+
+        public void onShutter() {
+            if (delegate != null) {
+                delegate.onShutter();
+            }
+        }
+
+        public void onPictureData(ByteBuffer jpeg) {
+            // Pictures are only taken once an activity took the camera over
+            delegate.onPictureData(jpeg);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Times the stages of a capture with the monotonic clock, from the getPicture request to the
+ * result sent to JavaScript. CameraActivity returns the times of its stages to CameraLauncher
+ * in a bundle.
+ *
+ * Finished captures are aggregated in a process-wide store, which keeps the latest durations
+ * of each stage so their percentiles can be queried.
+ */
+public class CaptureTimings {
+
+    /** Stages of a capture, in the order they happen */
+    public static final String REQUEST = "request";
+    public static final String ACTIVITY_CREATED = "activityCreated";
+    public static final String CAMERA_OPENED = "cameraOpened";
+    public static final String FIRST_FRAME = "firstFrame";
+    public static final String SHUTTER_TAP = "shutterTap";
+    public static final String SHUTTER = "shutter";
+    public static final String PICTURE_TAKEN = "pictureTaken";
+    public static final String PICTURE_WRITTEN = "pictureWritten";
+    public static final String RESULT_RECEIVED = "resultReceived";
+    public static final String EXIF_READ = "exifRead";
+    public static final String GALLERY_SAVED = "gallerySaved";
+    public static final String RESULT_SENT = "resultSent";
+
+    private static final String[] STAGES = {
+            REQUEST, ACTIVITY_CREATED, CAMERA_OPENED, FIRST_FRAME, SHUTTER_TAP, SHUTTER,
+            PICTURE_TAKEN, PICTURE_WRITTEN, RESULT_RECEIVED, EXIF_READ, GALLERY_SAVED, RESULT_SENT
+    };
+
+    /** Time from the shutter tap to the result, the latency the user waits for */
+    public static final String CAPTURE_LATENCY = "captureLatency";
+
+    private static final int MAX_SAMPLES = 128;
+
+    private static final Map<String, Samples> store = new HashMap<String, Samples>();
+    private static JSONObject lastCapture;
+
+    private final Map<String, Long> marks = new HashMap<String, Long>();
+
+    /**
+     * Records that a stage was reached now. A stage reached again, like the shutter of a
+     * retaken picture, keeps the latest time.
+     *
+     * @param stage     One of the stages
+     */
+    public synchronized void mark(String stage) {
+        marks.put(stage, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * @return the stages reached so far, to be passed between activities
+     */
+    public synchronized Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        for (Map.Entry<String, Long> mark : marks.entrySet()) {
+            bundle.putLong(mark.getKey(), mark.getValue());
+        }
+        return bundle;
+    }
+
+    /**
+     * Adds the stages reached by another component.
+     *
+     * @param bundle    The stages, may be null
+     */
+    public synchronized void add(Bundle bundle) {
+        if (bundle == null) {
+            return;
+        }
+        for (String stage : bundle.keySet()) {
+            marks.put(stage, bundle.getLong(stage));
+        }
+    }
+
+    /**
+     * Adds the durations of this capture to the store. Each stage is timed from the previous
+     * stage reached, so the shutter tap includes the time the user took to frame the picture.
+     */
+    public synchronized void finish() {
+        JSONObject capture = new JSONObject();
+        try {
+            Long previous = null;
+            for (String stage : STAGES) {
+                Long time = marks.get(stage);
+                if (time == null) {
+                    continue;
+                }
+                if (previous != null) {
+                    long duration = time - previous;
+                    capture.put(stage, duration);
+                    addSample(stage, duration);
+                }
+                previous = time;
+            }
+            Long shutterTap = marks.get(SHUTTER_TAP);
+            Long resultSent = marks.get(RESULT_SENT);
+            if (shutterTap != null && resultSent != null) {
+                capture.put(CAPTURE_LATENCY, resultSent - shutterTap);
+                addSample(CAPTURE_LATENCY, resultSent - shutterTap);
+            }
+        } catch (JSONException e) {
+            // Only numbers are put
+        }
+        synchronized (CaptureTimings.class) {
+            lastCapture = capture;
+        }
+    }
+
+    private static synchronized void addSample(String stage, long duration) {
+        Samples samples = store.get(stage);
+        if (samples == null) {
+            samples = new Samples();
+            store.put(stage, samples);
+        }
+        samples.add(duration);
+    }
+
+    /**
+     * Returns the durations of the last capture, and the count, median and 95th percentile of
+     * the latest durations of each stage, in milliseconds.
+     *
+     * @return {last: {stage: ms}, stages: {stage: {count, p50, p95}}}
+     */
+    public static synchronized JSONObject query() throws JSONException {
+        JSONObject stages = new JSONObject();
+        for (Map.Entry<String, Samples> entry : store.entrySet()) {
+            Samples samples = entry.getValue();
+            JSONObject stage = new JSONObject();
+            stage.put("count", samples.count);
+            stage.put("p50", samples.percentile(50));
+            stage.put("p95", samples.percentile(95));
+            stages.put(entry.getKey(), stage);
+        }
+        JSONObject result = new JSONObject();
+        result.put("last", lastCapture != null ? lastCapture : new JSONObject());
+        result.put("stages", stages);
+        return result;
+    }
+
+    /**
+     * The latest durations of a stage, older ones are overwritten.
+     */
+    private static class Samples {
+        private final long[] durations = new long[MAX_SAMPLES];
+        private int count;
+
+        void add(long duration) {
+            durations[count % MAX_SAMPLES] = duration;
+            count++;
+        }
+
+        long percentile(int percent) {
+            int size = Math.min(count, MAX_SAMPLES);
+            long[] sorted = Arrays.copyOf(durations, size);
+            Arrays.sort(sorted);
+            // Nearest rank
+            int rank = (int) Math.ceil(percent / 100.0 * size);
+            return sorted[Math.max(rank, 1) - 1];
+        }
+    }
+}
@@ -18,9 +18,13 @@
 */
 package org.apache.cordova.camera;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.InputStream;
 
+import android.annotation.TargetApi;
 import android.media.ExifInterface;
+import android.os.Build;
 
 public class ExifHelper {
     private String aperture = null;
@@ -56,6 +60,29 @@ public class ExifHelper {
         this.inFile = new ExifInterface(filePath);
     }
 
+    /**
+     * The file before it is compressed, read through an already opened descriptor.
+     * The descriptor is left open and its offset is not restored.
+     *
+     * @param fd
+     * @throws IOException
+     */
+    @TargetApi(Build.VERSION_CODES.N)
+    public void createInFile(FileDescriptor fd) throws IOException {
+        this.inFile = new ExifInterface(fd);
+    }
+
+    /**
+     * The picture before it is compressed, read from memory.
+     *
+     * @param inputStream
+     * @throws IOException
+     */
+    @TargetApi(Build.VERSION_CODES.N)
+    public void createInFile(InputStream inputStream) throws IOException {
+        this.inFile = new ExifInterface(inputStream);
+    }
+
     /**
      * The file after it has been compressed
      *
@@ -164,6 +191,9 @@ public class ExifHelper {
     }
 
     public int getOrientation() {
+        if (this.orientation == null) {
+            return 0;
+        }
         int o = Integer.parseInt(this.orientation);
 
         if (o == ExifInterface.ORIENTATION_NORMAL) {
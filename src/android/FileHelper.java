@@ -31,6 +31,7 @@ import android.webkit.MimeTypeMap;
 import org.apache.cordova.CordovaInterface;
 import org.apache.cordova.LOG;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -198,6 +199,33 @@ public class FileHelper {
         return returnValue;
     }
 
+    /**
+     * Returns the path of a readable local file holding the data of the given URI string.
+     * Returns null when the data can only be read as a stream (assets, remote providers, etc).
+     *
+     * @param uriString the URI string of the image
+     * @param cordova the current application context
+     * @return the full path to a readable file or null
+     */
+    public static String getLocalFilePath(String uriString, CordovaInterface cordova) {
+        String path = null;
+        if (uriString.startsWith("content")) {
+            path = getRealPath(uriString, cordova);
+        } else if (!uriString.startsWith("file:///android_asset/")) {
+            int question = uriString.indexOf("?");
+            if (question > -1) {
+                uriString = uriString.substring(0, question);
+            }
+            path = stripFileProtocol(uriString);
+        }
+
+        if (path == null) {
+            return null;
+        }
+        File file = new File(path);
+        return file.isFile() && file.canRead() ? file.getAbsolutePath() : null;
+    }
+
     /**
      * Removes the "file://" prefix from the given URI string, if applicable.
      * If the given URI string doesn't have a "file://" prefix, it is returned unchanged.
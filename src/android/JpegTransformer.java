@@ -0,0 +1,1157 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lossless transformations of baseline JPEG files, in the spirit of jpegtran -trim.
+ *
+ * The entropy coded data is only decoded down to the quantized DCT coefficients, which are
+ * moved and sign flipped block by block, then Huffman coded again with optimal tables. The
+ * image is never dequantized nor converted to pixels, so there is no generation loss.
+ *
+ * Flips and rotations that would move a partial MCU at the right or bottom edge of the image
+ * to the left or top drop that partial MCU, exactly like jpegtran -trim. Crops are aligned
+ * down to MCU boundaries. APPn and COM segments (EXIF, JFIF, ...) are copied unchanged, so the
+ * caller is responsible for resetting the EXIF orientation after a rotation.
+ *
+ * Only sequential Huffman coded files (SOF0 and SOF1) are supported, which is what camera
+ * drivers produce. Anything else is reported with an IOException.
+ */
+public class JpegTransformer {
+
+    public static final int NONE = 0;
+    public static final int FLIP_HORIZONTAL = 1;
+    public static final int FLIP_VERTICAL = 2;
+    public static final int TRANSPOSE = 3;
+    public static final int TRANSVERSE = 4;
+    public static final int ROTATE_90 = 5;
+    public static final int ROTATE_180 = 6;
+    public static final int ROTATE_270 = 7;
+
+    private static final int SOF0 = 0xC0;
+    private static final int SOF1 = 0xC1;
+    private static final int DHT = 0xC4;
+    private static final int RST0 = 0xD0;
+    private static final int RST7 = 0xD7;
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOS = 0xDA;
+    private static final int DQT = 0xDB;
+    private static final int DRI = 0xDD;
+    private static final int APP0 = 0xE0;
+    private static final int APP15 = 0xEF;
+    private static final int COM = 0xFE;
+
+    // Maps the zigzag position of a coefficient to its natural (row major) position
+    private static final int[] ZIGZAG = {
+             0,  1,  8, 16,  9,  2,  3, 10,
+            17, 24, 32, 25, 18, 11,  4,  5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13,  6,  7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    // Baseline allows at most 10 blocks in an interleaved MCU
+    private static final int MAX_BLOCKS_IN_MCU = 10;
+
+    private int frameMarker;
+    private int width;
+    private int height;
+    private int restartInterval;
+    private Component[] components;
+    private final int[][] quantTables = new int[4][];
+    private final boolean[] quantTables16Bit = new boolean[4];
+    private final HuffmanDecoder[] dcDecoders = new HuffmanDecoder[4];
+    private final HuffmanDecoder[] acDecoders = new HuffmanDecoder[4];
+    private final List<byte[]> extraSegments = new ArrayList<byte[]>();
+
+    // Entropy decoder state
+    private byte[] data;
+    private int pos;
+    private long bitBuffer;
+    private int bitCount;
+    private boolean markerReached;
+
+    private static class Component {
+        int id;
+        int h;
+        int v;
+        int quantTable;
+        int dcTable;
+        int acTable;
+        int dcPred;
+        // Size of the component in pixels, and of its block grid padded to whole MCUs
+        int width;
+        int height;
+        int blocksWide;
+        int blocksHigh;
+        short[] coefficients;
+
+        Component copyHeader(boolean transposed) {
+            Component c = new Component();
+            c.id = id;
+            c.h = transposed ? v : h;
+            c.v = transposed ? h : v;
+            c.quantTable = quantTable;
+            return c;
+        }
+    }
+
+    private interface BlockVisitor {
+        void visit(Component c, short[] coefficients, int offset) throws IOException;
+    }
+
+    /**
+     * Reads and entropy decodes a JPEG file.
+     *
+     * @param jpeg the complete contents of the file
+     * @throws IOException if the file is not a sequential Huffman coded JPEG or is corrupt
+     */
+    public JpegTransformer(byte[] jpeg) throws IOException {
+        this.data = jpeg;
+        try {
+            parse();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated JPEG data");
+        } finally {
+            // Only the coefficients are needed from now on
+            this.data = null;
+        }
+    }
+
+    /**
+     * Reads the whole stream and entropy decodes it. The stream is not closed.
+     *
+     * @param in the JPEG stream
+     * @return a transformer holding the decoded coefficients
+     * @throws IOException
+     */
+    public static JpegTransformer read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(in.available(), 64 * 1024));
+        byte[] buffer = new byte[64 * 1024];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, len);
+        }
+        return new JpegTransformer(bytes.toByteArray());
+    }
+
+    /**
+     * Returns the transformation that displays a picture upright given its EXIF orientation tag.
+     *
+     * @param exifOrientation the value of the EXIF orientation tag (1 to 8)
+     * @return one of the transformation constants of this class
+     */
+    public static int forExifOrientation(int exifOrientation) {
+        switch (exifOrientation) {
+            case 2: return FLIP_HORIZONTAL;
+            case 3: return ROTATE_180;
+            case 4: return FLIP_VERTICAL;
+            case 5: return TRANSPOSE;
+            case 6: return ROTATE_90;
+            case 7: return TRANSVERSE;
+            case 8: return ROTATE_270;
+            default: return NONE;
+        }
+    }
+
+    /**
+     * Returns the clockwise rotation matching a number of degrees.
+     *
+     * @param degrees 0, 90, 180 or 270
+     * @return one of the transformation constants of this class
+     */
+    public static int forRotation(int degrees) {
+        switch (degrees) {
+            case 90: return ROTATE_90;
+            case 180: return ROTATE_180;
+            case 270: return ROTATE_270;
+            default: return NONE;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Width of an MCU in pixels. Crops are aligned to multiples of it.
+     */
+    public int getMcuWidth() {
+        return 8 * maxH(components);
+    }
+
+    /**
+     * Height of an MCU in pixels. Crops are aligned to multiples of it.
+     */
+    public int getMcuHeight() {
+        return 8 * maxV(components);
+    }
+
+    /**
+     * Flips or rotates the image.
+     *
+     * @param transform one of the transformation constants of this class
+     * @throws IllegalStateException if the image is too small to be mirrored along an axis
+     */
+    public void transform(int transform) {
+        if (transform == NONE) {
+            return;
+        }
+        if (transform < NONE || transform > ROTATE_270) {
+            throw new IllegalArgumentException("Invalid transform: " + transform);
+        }
+
+        boolean transposed = transform == TRANSPOSE || transform == TRANSVERSE ||
+                transform == ROTATE_90 || transform == ROTATE_270;
+        // Source axes that are read backwards, and output frequencies whose sign flips
+        boolean mirrorX = transform == FLIP_HORIZONTAL || transform == ROTATE_270 ||
+                transform == ROTATE_180 || transform == TRANSVERSE;
+        boolean mirrorY = transform == FLIP_VERTICAL || transform == ROTATE_90 ||
+                transform == ROTATE_180 || transform == TRANSVERSE;
+        boolean negateOddU = transform == FLIP_HORIZONTAL || transform == ROTATE_90 ||
+                transform == ROTATE_180 || transform == TRANSVERSE;
+        boolean negateOddV = transform == FLIP_VERTICAL || transform == ROTATE_270 ||
+                transform == ROTATE_180 || transform == TRANSVERSE;
+
+        // Drop the partial MCU that would otherwise end up on the left or top edge
+        int mcuWidth = getMcuWidth();
+        int mcuHeight = getMcuHeight();
+        int srcWidth = width;
+        int srcHeight = height;
+        if ((mirrorX && srcWidth < mcuWidth) || (mirrorY && srcHeight < mcuHeight)) {
+            throw new IllegalStateException("Image is smaller than one MCU, it can't be transformed losslessly");
+        }
+        if (mirrorX) {
+            srcWidth -= srcWidth % mcuWidth;
+        }
+        if (mirrorY) {
+            srcHeight -= srcHeight % mcuHeight;
+        }
+
+        int[] source = new int[64];
+        boolean[] negate = new boolean[64];
+        for (int v = 0; v < 8; v++) {
+            for (int u = 0; u < 8; u++) {
+                int i = v * 8 + u;
+                source[i] = transposed ? u * 8 + v : i;
+                negate[i] = (negateOddU && (u & 1) == 1) ^ (negateOddV && (v & 1) == 1);
+            }
+        }
+
+        int maxH = maxH(components);
+        int maxV = maxV(components);
+        Component[] result = new Component[components.length];
+        for (int i = 0; i < components.length; i++) {
+            result[i] = components[i].copyHeader(transposed);
+        }
+        if (transposed) {
+            layout(result, srcHeight, srcWidth);
+        } else {
+            layout(result, srcWidth, srcHeight);
+        }
+
+        for (int i = 0; i < components.length; i++) {
+            Component src = components[i];
+            Component dst = result[i];
+            // Number of whole blocks of this component inside the kept source area
+            int srcBlocksX = (int) Math.ceil(ceilDiv(srcWidth * src.h, maxH) / 8.0);
+            int srcBlocksY = (int) Math.ceil(ceilDiv(srcHeight * src.v, maxV) / 8.0);
+
+            for (int by = 0; by < dst.blocksHigh; by++) {
+                for (int bx = 0; bx < dst.blocksWide; bx++) {
+                    int sx = transposed ? by : bx;
+                    int sy = transposed ? bx : by;
+                    if (mirrorX) {
+                        sx = srcBlocksX - 1 - sx;
+                    }
+                    if (mirrorY) {
+                        sy = srcBlocksY - 1 - sy;
+                    }
+                    if (sx < 0 || sy < 0 || sx >= src.blocksWide || sy >= src.blocksHigh) {
+                        // Padding outside of the image, leave it empty
+                        continue;
+                    }
+                    int srcOffset = (sy * src.blocksWide + sx) * 64;
+                    int dstOffset = (by * dst.blocksWide + bx) * 64;
+                    for (int k = 0; k < 64; k++) {
+                        short value = src.coefficients[srcOffset + source[k]];
+                        dst.coefficients[dstOffset + k] = negate[k] ? (short) -value : value;
+                    }
+                }
+            }
+            // Let the source go as soon as possible, these arrays are large
+            src.coefficients = null;
+        }
+
+        if (transposed) {
+            for (int t = 0; t < quantTables.length; t++) {
+                if (quantTables[t] != null) {
+                    int[] table = new int[64];
+                    for (int k = 0; k < 64; k++) {
+                        table[k] = quantTables[t][(k % 8) * 8 + k / 8];
+                    }
+                    quantTables[t] = table;
+                }
+            }
+        }
+        components = result;
+    }
+
+    /**
+     * Crops the image. The top left corner is moved up and left to the closest MCU boundary,
+     * and the size is clipped to the image.
+     *
+     * @param x left edge in pixels
+     * @param y top edge in pixels
+     * @param cropWidth width in pixels
+     * @param cropHeight height in pixels
+     */
+    public void crop(int x, int y, int cropWidth, int cropHeight) {
+        if (x < 0 || y < 0 || cropWidth <= 0 || cropHeight <= 0 || x >= width || y >= height) {
+            throw new IllegalArgumentException("Invalid crop region");
+        }
+        int mcuWidth = getMcuWidth();
+        int mcuHeight = getMcuHeight();
+        int mcuX = x / mcuWidth;
+        int mcuY = y / mcuHeight;
+        int newWidth = Math.min(cropWidth + x - mcuX * mcuWidth, width - mcuX * mcuWidth);
+        int newHeight = Math.min(cropHeight + y - mcuY * mcuHeight, height - mcuY * mcuHeight);
+
+        Component[] result = new Component[components.length];
+        for (int i = 0; i < components.length; i++) {
+            result[i] = components[i].copyHeader(false);
+        }
+        layout(result, newWidth, newHeight);
+
+        for (int i = 0; i < components.length; i++) {
+            Component src = components[i];
+            Component dst = result[i];
+            int offsetX = mcuX * src.h;
+            int offsetY = mcuY * src.v;
+            int rowBlocks = Math.min(dst.blocksWide, src.blocksWide - offsetX);
+            for (int by = 0; by < dst.blocksHigh && by + offsetY < src.blocksHigh; by++) {
+                System.arraycopy(src.coefficients, ((by + offsetY) * src.blocksWide + offsetX) * 64,
+                        dst.coefficients, by * dst.blocksWide * 64, rowBlocks * 64);
+            }
+            src.coefficients = null;
+        }
+        components = result;
+    }
+
+    /**
+     * Huffman codes the coefficients again and writes a complete JPEG file.
+     * The stream is flushed but not closed.
+     *
+     * @param out where to write the file
+     * @throws IOException
+     */
+    public void write(OutputStream out) throws IOException {
+        BufferedOutputStream os = new BufferedOutputStream(out, 64 * 1024);
+
+        for (int i = 0; i < components.length; i++) {
+            components[i].dcTable = i == 0 ? 0 : 1;
+            components[i].acTable = i == 0 ? 0 : 1;
+        }
+        List<Component[]> scans = new ArrayList<Component[]>();
+        int blocksInMcu = 0;
+        for (Component c : components) {
+            blocksInMcu += c.h * c.v;
+        }
+        if (components.length > 1 && blocksInMcu <= MAX_BLOCKS_IN_MCU) {
+            scans.add(components);
+        } else {
+            for (Component c : components) {
+                scans.add(new Component[] { c });
+            }
+        }
+
+        // First pass: gather the symbol statistics to build optimal tables
+        final int[][] dcFrequencies = new int[2][257];
+        final int[][] acFrequencies = new int[2][257];
+        for (Component[] scan : scans) {
+            resetPredictions(scan);
+            walkScan(scan, 0, new BlockVisitor() {
+                public void visit(Component c, short[] coefficients, int offset) throws IOException {
+                    countBlock(c, coefficients, offset, dcFrequencies[c.dcTable], acFrequencies[c.acTable]);
+                }
+            });
+        }
+
+        writeMarker(os, SOI);
+        for (byte[] segment : extraSegments) {
+            os.write(segment);
+        }
+        writeQuantTables(os);
+        writeFrameHeader(os);
+
+        final HuffmanEncoder[] dcEncoders = new HuffmanEncoder[2];
+        final HuffmanEncoder[] acEncoders = new HuffmanEncoder[2];
+        for (int t = 0; t < 2; t++) {
+            if (hasSymbols(dcFrequencies[t])) {
+                dcEncoders[t] = new HuffmanEncoder(dcFrequencies[t]);
+                writeHuffmanTable(os, 0, t, dcEncoders[t]);
+            }
+            if (hasSymbols(acFrequencies[t])) {
+                acEncoders[t] = new HuffmanEncoder(acFrequencies[t]);
+                writeHuffmanTable(os, 1, t, acEncoders[t]);
+            }
+        }
+
+        // Second pass: entropy code every scan
+        final BitWriter writer = new BitWriter(os);
+        for (Component[] scan : scans) {
+            writeScanHeader(os, scan);
+            resetPredictions(scan);
+            walkScan(scan, 0, new BlockVisitor() {
+                public void visit(Component c, short[] coefficients, int offset) throws IOException {
+                    encodeBlock(c, coefficients, offset, dcEncoders[c.dcTable], acEncoders[c.acTable], writer);
+                }
+            });
+            writer.flush();
+        }
+
+        writeMarker(os, EOI);
+        os.flush();
+    }
+
+    //--------------------------------------------------------------------------
+    // Parsing and entropy decoding
+    //--------------------------------------------------------------------------
+
+    private void parse() throws IOException {
+        if (u8(0) != 0xFF || u8(1) != SOI) {
+            throw new IOException("Not a JPEG file");
+        }
+        pos = 2;
+        while (true) {
+            if (u8(pos) != 0xFF) {
+                throw new IOException("Marker expected at offset " + pos);
+            }
+            while (u8(pos) == 0xFF) {
+                pos++;
+            }
+            int marker = u8(pos++);
+            if (marker == EOI) {
+                break;
+            }
+            if (marker == SOI || marker == 0x01 || (marker >= RST0 && marker <= RST7)) {
+                continue;
+            }
+
+            int start = pos + 2;
+            int end = pos + u16(pos);
+            if ((marker >= APP0 && marker <= APP15) || marker == COM) {
+                extraSegments.add(Arrays.copyOfRange(data, pos - 2, end));
+            } else if (marker == DQT) {
+                parseQuantTables(start, end);
+            } else if (marker == SOF0 || marker == SOF1) {
+                parseFrameHeader(marker, start);
+            } else if ((marker >= 0xC2 && marker <= 0xCF) && marker != DHT && marker != 0xC8 && marker != 0xCC) {
+                throw new IOException("Unsupported JPEG process (SOF" + (marker - SOF0) + ")");
+            } else if (marker == DHT) {
+                parseHuffmanTables(start, end);
+            } else if (marker == DRI) {
+                restartInterval = u16(start);
+            } else if (marker == SOS) {
+                decodeScan(start, end);
+                continue;
+            }
+            pos = end;
+        }
+
+        if (components == null) {
+            throw new IOException("No frame header found");
+        }
+    }
+
+    private void parseQuantTables(int start, int end) throws IOException {
+        int p = start;
+        while (p < end) {
+            int precision = u8(p) >> 4;
+            int id = u8(p) & 0x0F;
+            p++;
+            if (id > 3) {
+                throw new IOException("Invalid quantization table " + id);
+            }
+            int[] table = new int[64];
+            for (int k = 0; k < 64; k++) {
+                if (precision == 0) {
+                    table[ZIGZAG[k]] = u8(p++);
+                } else {
+                    table[ZIGZAG[k]] = u16(p);
+                    p += 2;
+                }
+            }
+            quantTables[id] = table;
+            quantTables16Bit[id] = precision != 0;
+        }
+    }
+
+    private void parseFrameHeader(int marker, int start) throws IOException {
+        if (components != null) {
+            throw new IOException("Multiple frames are not supported");
+        }
+        if (u8(start) != 8) {
+            throw new IOException("Unsupported sample precision " + u8(start));
+        }
+        frameMarker = marker;
+        height = u16(start + 1);
+        width = u16(start + 3);
+        if (width == 0 || height == 0) {
+            throw new IOException("Unsupported image size " + width + "x" + height);
+        }
+        int count = u8(start + 5);
+        components = new Component[count];
+        for (int i = 0; i < count; i++) {
+            int p = start + 6 + i * 3;
+            Component c = new Component();
+            c.id = u8(p);
+            c.h = u8(p + 1) >> 4;
+            c.v = u8(p + 1) & 0x0F;
+            c.quantTable = u8(p + 2) & 0x03;
+            if (c.h < 1 || c.h > 4 || c.v < 1 || c.v > 4) {
+                throw new IOException("Invalid sampling factors");
+            }
+            components[i] = c;
+        }
+        layout(components, width, height);
+    }
+
+    private void parseHuffmanTables(int start, int end) throws IOException {
+        int p = start;
+        while (p < end) {
+            int tableClass = u8(p) >> 4;
+            int id = u8(p) & 0x0F;
+            p++;
+            if (id > 3 || tableClass > 1) {
+                throw new IOException("Invalid Huffman table");
+            }
+            int[] bits = new int[17];
+            int total = 0;
+            for (int l = 1; l <= 16; l++) {
+                bits[l] = u8(p++);
+                total += bits[l];
+            }
+            int[] values = new int[total];
+            for (int k = 0; k < total; k++) {
+                values[k] = u8(p++);
+            }
+            HuffmanDecoder decoder = new HuffmanDecoder(bits, values);
+            if (tableClass == 0) {
+                dcDecoders[id] = decoder;
+            } else {
+                acDecoders[id] = decoder;
+            }
+        }
+    }
+
+    private void decodeScan(int start, int end) throws IOException {
+        if (components == null) {
+            throw new IOException("Scan before frame header");
+        }
+        int count = u8(start);
+        Component[] scan = new Component[count];
+        for (int i = 0; i < count; i++) {
+            int id = u8(start + 1 + i * 2);
+            int tables = u8(start + 2 + i * 2);
+            for (Component c : components) {
+                if (c.id == id) {
+                    scan[i] = c;
+                }
+            }
+            if (scan[i] == null) {
+                throw new IOException("Scan references unknown component " + id);
+            }
+            scan[i].dcTable = tables >> 4;
+            scan[i].acTable = tables & 0x0F;
+            if (dcDecoders[scan[i].dcTable & 3] == null || acDecoders[scan[i].acTable & 3] == null) {
+                throw new IOException("Scan references undefined Huffman table");
+            }
+        }
+
+        pos = end;
+        bitBuffer = 0;
+        bitCount = 0;
+        markerReached = false;
+        resetPredictions(scan);
+        walkScan(scan, restartInterval, new BlockVisitor() {
+            public void visit(Component c, short[] coefficients, int offset) throws IOException {
+                decodeBlock(c, coefficients, offset);
+            }
+        });
+
+        // Move on to the next marker, skipping any padding left in the entropy coded data
+        while (!(u8(pos) == 0xFF && u8(pos + 1) != 0 && (u8(pos + 1) < RST0 || u8(pos + 1) > RST7) && u8(pos + 1) != 0xFF)) {
+            pos++;
+        }
+    }
+
+    private void decodeBlock(Component c, short[] coefficients, int offset) throws IOException {
+        HuffmanDecoder dc = dcDecoders[c.dcTable & 3];
+        HuffmanDecoder ac = acDecoders[c.acTable & 3];
+
+        int size = decodeSymbol(dc);
+        int diff = size == 0 ? 0 : extend(receiveBits(size), size);
+        c.dcPred += diff;
+        coefficients[offset] = (short) c.dcPred;
+
+        for (int k = 1; k < 64; k++) {
+            int rs = decodeSymbol(ac);
+            int run = rs >> 4;
+            size = rs & 0x0F;
+            if (size == 0) {
+                if (run != 15) {
+                    break;
+                }
+                k += 15;
+                continue;
+            }
+            k += run;
+            if (k > 63) {
+                throw new IOException("Corrupt JPEG data: coefficient index out of range");
+            }
+            coefficients[offset + ZIGZAG[k]] = (short) extend(receiveBits(size), size);
+        }
+    }
+
+    private void fillBits() {
+        while (bitCount <= 56) {
+            int b = 0;
+            if (!markerReached) {
+                b = u8(pos);
+                if (b == 0xFF) {
+                    if (u8(pos + 1) == 0) {
+                        pos += 2;
+                    } else {
+                        // A marker ends the entropy coded segment, feed zeros from here on
+                        markerReached = true;
+                        b = 0;
+                    }
+                } else {
+                    pos++;
+                }
+            }
+            bitBuffer |= ((long) b) << (56 - bitCount);
+            bitCount += 8;
+        }
+    }
+
+    private int decodeSymbol(HuffmanDecoder table) throws IOException {
+        fillBits();
+        int entry = table.lookup[(int) (bitBuffer >>> (64 - HuffmanDecoder.LOOKUP_BITS))];
+        if (entry != 0) {
+            skipBits(entry >> 8);
+            return entry & 0xFF;
+        }
+        int length = HuffmanDecoder.LOOKUP_BITS + 1;
+        int code = (int) (bitBuffer >>> (64 - length));
+        while (length <= 16 && code > table.maxCode[length]) {
+            length++;
+            code = (int) (bitBuffer >>> (64 - length));
+        }
+        if (length > 16) {
+            throw new IOException("Corrupt JPEG data: bad Huffman code");
+        }
+        skipBits(length);
+        return table.values[code + table.valueOffset[length]];
+    }
+
+    private int receiveBits(int count) {
+        fillBits();
+        int value = (int) (bitBuffer >>> (64 - count));
+        skipBits(count);
+        return value;
+    }
+
+    private void skipBits(int count) {
+        bitBuffer <<= count;
+        bitCount -= count;
+    }
+
+    private static int extend(int value, int size) {
+        return value < (1 << (size - 1)) ? value - (1 << size) + 1 : value;
+    }
+
+    private void restart() throws IOException {
+        // Drop the padding bits and find the RSTn marker
+        bitBuffer = 0;
+        bitCount = 0;
+        markerReached = false;
+        while (!(u8(pos) == 0xFF && u8(pos + 1) >= RST0 && u8(pos + 1) <= RST7)) {
+            if (u8(pos) == 0xFF && u8(pos + 1) != 0 && u8(pos + 1) != 0xFF) {
+                throw new IOException("Corrupt JPEG data: missing restart marker");
+            }
+            pos++;
+        }
+        pos += 2;
+    }
+
+    //--------------------------------------------------------------------------
+    // Entropy encoding
+    //--------------------------------------------------------------------------
+
+    private static void countBlock(Component c, short[] coefficients, int offset, int[] dcFrequencies,
+                                   int[] acFrequencies) throws IOException {
+        int diff = coefficients[offset] - c.dcPred;
+        c.dcPred = coefficients[offset];
+        int size = bitLength(diff);
+        if (size > 11) {
+            throw new IOException("DC coefficient out of range");
+        }
+        dcFrequencies[size]++;
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int value = coefficients[offset + ZIGZAG[k]];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                acFrequencies[0xF0]++;
+                run -= 16;
+            }
+            acFrequencies[(run << 4) | bitLength(value)]++;
+            run = 0;
+        }
+        if (run > 0) {
+            acFrequencies[0x00]++;
+        }
+    }
+
+    private static void encodeBlock(Component c, short[] coefficients, int offset, HuffmanEncoder dc,
+                                    HuffmanEncoder ac, BitWriter writer) throws IOException {
+        int diff = coefficients[offset] - c.dcPred;
+        c.dcPred = coefficients[offset];
+        int size = bitLength(diff);
+        writer.write(dc.codes[size], dc.sizes[size]);
+        if (size > 0) {
+            writer.write(diff < 0 ? diff - 1 : diff, size);
+        }
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int value = coefficients[offset + ZIGZAG[k]];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                writer.write(ac.codes[0xF0], ac.sizes[0xF0]);
+                run -= 16;
+            }
+            size = bitLength(value);
+            int symbol = (run << 4) | size;
+            writer.write(ac.codes[symbol], ac.sizes[symbol]);
+            writer.write(value < 0 ? value - 1 : value, size);
+            run = 0;
+        }
+        if (run > 0) {
+            writer.write(ac.codes[0x00], ac.sizes[0x00]);
+        }
+    }
+
+    private static int bitLength(int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+
+    private static boolean hasSymbols(int[] frequencies) {
+        for (int f : frequencies) {
+            if (f > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeMarker(OutputStream os, int marker) throws IOException {
+        os.write(0xFF);
+        os.write(marker);
+    }
+
+    private static void writeShort(OutputStream os, int value) throws IOException {
+        os.write(value >> 8);
+        os.write(value & 0xFF);
+    }
+
+    private void writeQuantTables(OutputStream os) throws IOException {
+        for (int id = 0; id < quantTables.length; id++) {
+            if (quantTables[id] == null) {
+                continue;
+            }
+            boolean wide = quantTables16Bit[id];
+            writeMarker(os, DQT);
+            writeShort(os, 2 + 1 + 64 * (wide ? 2 : 1));
+            os.write((wide ? 0x10 : 0x00) | id);
+            for (int k = 0; k < 64; k++) {
+                if (wide) {
+                    writeShort(os, quantTables[id][ZIGZAG[k]]);
+                } else {
+                    os.write(quantTables[id][ZIGZAG[k]]);
+                }
+            }
+        }
+    }
+
+    private void writeFrameHeader(OutputStream os) throws IOException {
+        writeMarker(os, frameMarker);
+        writeShort(os, 8 + 3 * components.length);
+        os.write(8);
+        writeShort(os, height);
+        writeShort(os, width);
+        os.write(components.length);
+        for (Component c : components) {
+            os.write(c.id);
+            os.write((c.h << 4) | c.v);
+            os.write(c.quantTable);
+        }
+    }
+
+    private static void writeHuffmanTable(OutputStream os, int tableClass, int id, HuffmanEncoder table)
+            throws IOException {
+        writeMarker(os, DHT);
+        writeShort(os, 2 + 1 + 16 + table.values.length);
+        os.write((tableClass << 4) | id);
+        for (int l = 1; l <= 16; l++) {
+            os.write(table.bits[l]);
+        }
+        for (int value : table.values) {
+            os.write(value);
+        }
+    }
+
+    private static void writeScanHeader(OutputStream os, Component[] scan) throws IOException {
+        writeMarker(os, SOS);
+        writeShort(os, 6 + 2 * scan.length);
+        os.write(scan.length);
+        for (Component c : scan) {
+            os.write(c.id);
+            os.write((c.dcTable << 4) | c.acTable);
+        }
+        // Spectral selection and successive approximation are fixed for sequential files
+        os.write(0);
+        os.write(63);
+        os.write(0);
+    }
+
+    //--------------------------------------------------------------------------
+    // Block layout
+    //--------------------------------------------------------------------------
+
+    /**
+     * Computes the size and the MCU padded block grid of every component, and allocates
+     * their coefficients.
+     */
+    private void layout(Component[] comps, int imageWidth, int imageHeight) {
+        int maxH = maxH(comps);
+        int maxV = maxV(comps);
+        int mcusWide = ceilDiv(imageWidth, 8 * maxH);
+        int mcusHigh = ceilDiv(imageHeight, 8 * maxV);
+        for (Component c : comps) {
+            c.width = ceilDiv(imageWidth * c.h, maxH);
+            c.height = ceilDiv(imageHeight * c.v, maxV);
+            c.blocksWide = mcusWide * c.h;
+            c.blocksHigh = mcusHigh * c.v;
+            c.coefficients = new short[c.blocksWide * c.blocksHigh * 64];
+        }
+        this.width = imageWidth;
+        this.height = imageHeight;
+    }
+
+    /**
+     * Visits the blocks of a scan in the order they are entropy coded.
+     */
+    private void walkScan(Component[] scan, int interval, BlockVisitor visitor) throws IOException {
+        int mcuCount = 0;
+        if (scan.length == 1) {
+            // Non interleaved scans cover only the blocks that hold image data
+            Component c = scan[0];
+            int blocksWide = ceilDiv(c.width, 8);
+            int blocksHigh = ceilDiv(c.height, 8);
+            for (int by = 0; by < blocksHigh; by++) {
+                for (int bx = 0; bx < blocksWide; bx++) {
+                    if (interval > 0 && mcuCount > 0 && mcuCount % interval == 0) {
+                        restart();
+                        resetPredictions(scan);
+                    }
+                    visitor.visit(c, c.coefficients, (by * c.blocksWide + bx) * 64);
+                    mcuCount++;
+                }
+            }
+            return;
+        }
+
+        int mcusWide = ceilDiv(width, 8 * maxH(components));
+        int mcusHigh = ceilDiv(height, 8 * maxV(components));
+        for (int mcuY = 0; mcuY < mcusHigh; mcuY++) {
+            for (int mcuX = 0; mcuX < mcusWide; mcuX++) {
+                if (interval > 0 && mcuCount > 0 && mcuCount % interval == 0) {
+                    restart();
+                    resetPredictions(scan);
+                }
+                for (Component c : scan) {
+                    for (int y = 0; y < c.v; y++) {
+                        for (int x = 0; x < c.h; x++) {
+                            int bx = mcuX * c.h + x;
+                            int by = mcuY * c.v + y;
+                            visitor.visit(c, c.coefficients, (by * c.blocksWide + bx) * 64);
+                        }
+                    }
+                }
+                mcuCount++;
+            }
+        }
+    }
+
+    private static void resetPredictions(Component[] scan) {
+        for (Component c : scan) {
+            c.dcPred = 0;
+        }
+    }
+
+    private static int maxH(Component[] comps) {
+        int max = 1;
+        for (Component c : comps) {
+            max = Math.max(max, c.h);
+        }
+        return max;
+    }
+
+    private static int maxV(Component[] comps) {
+        int max = 1;
+        for (Component c : comps) {
+            max = Math.max(max, c.v);
+        }
+        return max;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    private int u8(int offset) {
+        return data[offset] & 0xFF;
+    }
+
+    private int u16(int offset) {
+        return (u8(offset) << 8) | u8(offset + 1);
+    }
+
+    //--------------------------------------------------------------------------
+    // Huffman tables
+    //--------------------------------------------------------------------------
+
+    private static class HuffmanDecoder {
+        static final int LOOKUP_BITS = 9;
+
+        // (code length << 8) | symbol for every code of at most LOOKUP_BITS bits, 0 otherwise
+        final int[] lookup = new int[1 << LOOKUP_BITS];
+        final int[] maxCode = new int[18];
+        final int[] valueOffset = new int[18];
+        final int[] values;
+
+        HuffmanDecoder(int[] bits, int[] values) throws IOException {
+            this.values = values;
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                valueOffset[length] = k - code;
+                for (int i = 0; i < bits[length]; i++) {
+                    if (length <= LOOKUP_BITS) {
+                        int shift = LOOKUP_BITS - length;
+                        for (int fill = 0; fill < (1 << shift); fill++) {
+                            lookup[(code << shift) | fill] = (length << 8) | values[k];
+                        }
+                    }
+                    code++;
+                    k++;
+                }
+                maxCode[length] = bits[length] == 0 ? -1 : code - 1;
+                if (code > (1 << length)) {
+                    throw new IOException("Invalid Huffman table");
+                }
+                code <<= 1;
+            }
+            maxCode[17] = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * An optimal Huffman table for the given symbol frequencies, built with the procedure of
+     * section K.2 of the JPEG specification.
+     */
+    private static class HuffmanEncoder {
+        final int[] bits = new int[17];
+        final int[] values;
+        final int[] codes = new int[256];
+        final int[] sizes = new int[256];
+
+        HuffmanEncoder(int[] symbolFrequencies) {
+            long[] freq = new long[257];
+            for (int i = 0; i < 256; i++) {
+                freq[i] = symbolFrequencies[i];
+            }
+            // Reserve one code point so no code consists of all ones
+            freq[256] = 1;
+
+            int[] codeSize = new int[257];
+            int[] others = new int[257];
+            Arrays.fill(others, -1);
+
+            while (true) {
+                int c1 = -1;
+                long v = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (freq[i] > 0 && freq[i] <= v) {
+                        v = freq[i];
+                        c1 = i;
+                    }
+                }
+                int c2 = -1;
+                v = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (freq[i] > 0 && freq[i] <= v && i != c1) {
+                        v = freq[i];
+                        c2 = i;
+                    }
+                }
+                if (c2 < 0) {
+                    break;
+                }
+
+                freq[c1] += freq[c2];
+                freq[c2] = 0;
+                codeSize[c1]++;
+                while (others[c1] >= 0) {
+                    c1 = others[c1];
+                    codeSize[c1]++;
+                }
+                others[c1] = c2;
+                codeSize[c2]++;
+                while (others[c2] >= 0) {
+                    c2 = others[c2];
+                    codeSize[c2]++;
+                }
+            }
+
+            int[] lengthCounts = new int[33];
+            for (int i = 0; i <= 256; i++) {
+                if (codeSize[i] > 0) {
+                    lengthCounts[codeSize[i]]++;
+                }
+            }
+            // Limit the code lengths to 16 bits
+            for (int i = 32; i > 16; i--) {
+                while (lengthCounts[i] > 0) {
+                    int j = i - 2;
+                    while (lengthCounts[j] == 0) {
+                        j--;
+                    }
+                    lengthCounts[i] -= 2;
+                    lengthCounts[i - 1]++;
+                    lengthCounts[j + 1] += 2;
+                    lengthCounts[j]--;
+                }
+            }
+            // Drop the reserved code point, which has the longest code
+            int longest = 16;
+            while (lengthCounts[longest] == 0) {
+                longest--;
+            }
+            lengthCounts[longest]--;
+            System.arraycopy(lengthCounts, 0, bits, 0, 17);
+
+            int total = 0;
+            for (int l = 1; l <= 16; l++) {
+                total += bits[l];
+            }
+            values = new int[total];
+            int p = 0;
+            for (int size = 1; size <= 32 && p < total; size++) {
+                for (int symbol = 0; symbol < 256 && p < total; symbol++) {
+                    if (codeSize[symbol] == size) {
+                        values[p++] = symbol;
+                    }
+                }
+            }
+
+            int code = 0;
+            p = 0;
+            for (int length = 1; length <= 16; length++) {
+                for (int i = 0; i < bits[length]; i++) {
+                    codes[values[p]] = code;
+                    sizes[values[p]] = length;
+                    code++;
+                    p++;
+                }
+                code <<= 1;
+            }
+        }
+    }
+
+    private static class BitWriter {
+        private final OutputStream os;
+        private long accumulator;
+        private int count;
+
+        BitWriter(OutputStream os) {
+            this.os = os;
+        }
+
+        void write(int value, int size) throws IOException {
+            accumulator = (accumulator << size) | (value & ((1 << size) - 1));
+            count += size;
+            while (count >= 8) {
+                int b = (int) (accumulator >>> (count - 8)) & 0xFF;
+                os.write(b);
+                if (b == 0xFF) {
+                    // Byte stuffing
+                    os.write(0);
+                }
+                count -= 8;
+            }
+        }
+
+        void flush() throws IOException {
+            if (count > 0) {
+                // Pad the last byte with ones
+                int padding = 8 - count;
+                write((1 << padding) - 1, padding);
+            }
+            accumulator = 0;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import android.graphics.Point;
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Capture engine based on the android.hardware.Camera API, for devices without
+ * full camera2 support.
+ *
+ * The camera is opened on a dedicated camera thread, so all its calls and callbacks
+ * run there and never block the UI thread.
+ */
+@SuppressWarnings("deprecation")
+public class LegacyCaptureEngine implements CaptureEngine {
+
+    private static final String LOG_TAG = "LegacyCaptureEngine";
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private HandlerThread cameraThread;
+    private Handler cameraHandler;
+
+    private Listener listener;
+    private volatile int targetWidth;
+    private volatile int targetHeight;
+    private volatile int jpegQuality;
+    private volatile int rotation;
+    private volatile boolean closed;
+
+    // Set on the camera thread before onCameraOpened
+    private volatile List<Point> pictureSizes;
+    private volatile List<Point> previewSizes;
+
+    // Chosen on the UI thread, applied on the camera thread before the preview starts
+    private volatile Point pictureSize;
+    private volatile Point previewSize;
+
+    // Only used on the camera thread
+    private Camera mCamera;
+    private int appliedRotation = -1;
+    private ExecutorService pictureExecutor;    // Delivers the picture data off the camera thread
+
+    public void setTargetSize(int width, int height) {
+        this.targetWidth = width;
+        this.targetHeight = height;
+    }
+
+    public void setJpegQuality(int quality) {
+        this.jpegQuality = quality;
+    }
+
+    public void open(Listener listener) {
+        this.listener = listener;
+
+        cameraThread = new HandlerThread("CameraThread");
+        cameraThread.start();
+        cameraHandler = new Handler(cameraThread.getLooper());
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                openOnCameraThread();
+            }
+        });
+    }
+
+    private void openOnCameraThread() {
+        if (closed) {
+            return;
+        }
+        try {
+            // The camera delivers its callbacks on the looper of the thread opening it
+            mCamera = Camera.open();
+        }
+        catch (Exception e){
+            Log.d(LOG_TAG, String.valueOf(e));
+            // Camera is not available (in use or does not exist)
+        }
+        if (mCamera == null) {
+            postError("Camera is not available");
+            return;
+        }
+        pictureExecutor = Executors.newSingleThreadExecutor();
+
+        Camera.Parameters parameters = mCamera.getParameters();
+
+        if (parameters.getSupportedFocusModes().contains(
+                Camera.Parameters.FOCUS_MODE_AUTO)) {
+            parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
+        }
+
+        mCamera.setParameters(parameters);
+        mCamera.setDisplayOrientation(90);
+        mCamera.setErrorCallback(new Camera.ErrorCallback() {
+            @Override
+            public void onError(int error, Camera camera) {
+                // The camera service died or another client took the camera over
+                postDisconnected("Camera error " + error);
+            }
+        });
+
+        pictureSizes = toPoints(parameters.getSupportedPictureSizes());
+        previewSizes = toPoints(parameters.getSupportedPreviewSizes());
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!closed) {
+                    listener.onCameraOpened();
+                }
+            }
+        });
+    }
+
+    private static List<Point> toPoints(List<Camera.Size> sizes) {
+        List<Point> points = new ArrayList<Point>();
+        for (Camera.Size size : sizes) {
+            points.add(new Point(size.width, size.height));
+        }
+        return points;
+    }
+
+    public Point choosePreviewSize(int maxWidth, int maxHeight) {
+        if (pictureSizes == null) {
+            return null;
+        }
+        pictureSize = CameraSizes.choosePictureSize(pictureSizes, targetWidth, targetHeight);
+
+        // The display is rotated by 90 degrees, so the view is the sensor turned sideways
+        Point view = CameraSizes.fitPreviewView(pictureSize, maxWidth, maxHeight);
+        Point chosen = CameraSizes.choosePreviewSize(previewSizes, view.y, view.x);
+        previewSize = chosen;
+
+        return new Point(chosen.y, chosen.x);
+    }
+
+    public void startPreview(final SurfaceHolder holder) {
+        if (cameraHandler == null) {
+            return;
+        }
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCamera == null) {
+                    return;
+                }
+                try {
+                    applyParameters();
+                    mCamera.setPreviewDisplay(holder);
+                    mCamera.startPreview();
+                    mCamera.setOneShotPreviewCallback(firstFrameCallback);
+                } catch (IOException e) {
+                    Log.d(LOG_TAG, "Error setting camera preview: " + e.getMessage());
+                } catch (RuntimeException e) {
+                    Log.d(LOG_TAG, "Error starting camera preview: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies the sizes and quality chosen for this capture. Only called while the preview
+     * is stopped, and only touches the camera when something changed.
+     */
+    private void applyParameters() {
+        Camera.Parameters parameters = mCamera.getParameters();
+        boolean changed = false;
+
+        Point picture = pictureSize != null ? pictureSize :
+                CameraSizes.choosePictureSize(pictureSizes, targetWidth, targetHeight);
+        Camera.Size current = parameters.getPictureSize();
+        if (current.width != picture.x || current.height != picture.y) {
+            parameters.setPictureSize(picture.x, picture.y);
+            changed = true;
+        }
+        Point preview = previewSize;
+        current = parameters.getPreviewSize();
+        if (preview != null && (current.width != preview.x || current.height != preview.y)) {
+            parameters.setPreviewSize(preview.x, preview.y);
+            changed = true;
+        }
+        if (jpegQuality > 0 && parameters.getJpegQuality() != jpegQuality) {
+            parameters.setJpegQuality(jpegQuality);
+            changed = true;
+        }
+        int degrees = rotation;
+        if (appliedRotation != degrees) {
+            parameters.setRotation(degrees);
+            appliedRotation = degrees;
+            changed = true;
+        }
+        if (changed) {
+            mCamera.setParameters(parameters);
+        }
+    }
+
+    public void stopPreview() {
+        if (cameraHandler == null) {
+            return;
+        }
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCamera == null) {
+                    return;
+                }
+                try {
+                    mCamera.stopPreview();
+                } catch (Exception e){
+                    // ignore: tried to stop a non-existent preview
+                }
+            }
+        });
+    }
+
+    public void setRotation(int degrees) {
+        // Only applied when the preview starts or a picture is taken, setParameters is costly
+        this.rotation = degrees;
+    }
+
+    public void takePicture() {
+        if (cameraHandler == null) {
+            return;
+        }
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCamera == null) {
+                    return;
+                }
+                try {
+                    int degrees = rotation;
+                    if (appliedRotation != degrees) {
+                        Camera.Parameters parameters = mCamera.getParameters();
+                        parameters.setRotation(degrees);
+                        mCamera.setParameters(parameters);
+                        appliedRotation = degrees;
+                    }
+                    mCamera.takePicture(null, null, mPicture);
+                } catch (RuntimeException e) {
+                    Log.d(LOG_TAG, "Error taking picture: " + e.getMessage());
+                    postError("Error taking picture");
+                }
+            }
+        });
+    }
+
+    public void close() {
+        closed = true;
+        if (cameraHandler == null) {
+            return;
+        }
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCamera != null){
+                    mCamera.release();
+                    mCamera = null;
+                }
+                if (pictureExecutor != null) {
+                    // Lets a pending picture be delivered
+                    pictureExecutor.shutdown();
+                    pictureExecutor = null;
+                }
+            }
+        });
+        cameraThread.quitSafely();
+    }
+
+    private Camera.PreviewCallback firstFrameCallback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!closed) {
+                        listener.onPreviewStarted();
+                    }
+                }
+            });
+        }
+    };
+
+    private Camera.PictureCallback mPicture = new Camera.PictureCallback() {
+        @Override
+        public void onPictureTaken(final byte[] data, Camera camera) {
+            // The preview is already stopped once the picture is taken
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!closed) {
+                        listener.onShutter();
+                    }
+                }
+            });
+
+            pictureExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onPictureData(ByteBuffer.wrap(data));
+                }
+            });
+        }
+    };
+
+    private void postError(final String message) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!closed) {
+                    listener.onCameraError(message);
+                }
+            }
+        });
+    }
+
+    private void postDisconnected(final String message) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!closed) {
+                    listener.onCameraDisconnected(message);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,207 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the reference picture shown over the preview of CameraActivity. The picture is
+ * decoded off the UI thread at about the size of the preview, and the result is kept in
+ * memory and on disk, keyed by the path and modification time of the picture and the
+ * size of the preview, so capturing again against the same reference shows it at once.
+ */
+public class OverlayCache {
+
+    private static final String LOG_TAG = "OverlayCache";
+
+    private static final String CACHE_DIR = "camera-overlays";
+    private static final long DISK_CACHE_SIZE = 10 * 1024 * 1024;
+    private static final int DISK_CACHE_QUALITY = 90;
+
+    public interface Callback {
+        /**
+         * Called on the UI thread.
+         *
+         * @param overlay   The overlay at the size of the preview, null if it could not be loaded
+         */
+        void onOverlayLoaded(Bitmap overlay);
+    }
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // Overlays are about the size of the screen, a few of them fit in an eighth of the heap
+    private static final LruCache<String, Bitmap> memoryCache =
+            new LruCache<String, Bitmap>((int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE)) {
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getByteCount();
+        }
+    };
+
+    /**
+     * Loads the overlay for the given picture. The callback is called synchronously when
+     * the overlay is in memory, otherwise once it is loaded.
+     *
+     * @param context   The context, for the cache directory
+     * @param path      The path of the reference picture
+     * @param width     The width of the preview
+     * @param height    The height of the preview
+     * @param callback  Receives the overlay
+     */
+    public static void load(Context context, final String path, final int width, final int height,
+                            final Callback callback) {
+        final File picture = new File(path);
+        final String key = path + '|' + picture.lastModified() + '|' + width + 'x' + height;
+
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            callback.onOverlayLoaded(cached);
+            return;
+        }
+
+        final File cacheDir = new File(context.getCacheDir(), CACHE_DIR);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap overlay = loadInBackground(picture, key, cacheDir, width, height);
+                if (overlay != null) {
+                    memoryCache.put(key, overlay);
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onOverlayLoaded(overlay);
+                    }
+                });
+            }
+        });
+    }
+
+    private static Bitmap loadInBackground(File picture, String key, File cacheDir, int width, int height) {
+        if (!picture.exists()) {
+            return null;
+        }
+        File cacheFile = new File(cacheDir, CacheHelper.hash(key) + ".jpg");
+        if (cacheFile.exists()) {
+            Bitmap overlay = BitmapFactory.decodeFile(cacheFile.getAbsolutePath());
+            if (overlay != null) {
+                // Keeps recently used entries from being trimmed
+                cacheFile.setLastModified(System.currentTimeMillis());
+                return overlay;
+            }
+        }
+
+        Bitmap overlay = decode(picture, width, height);
+        if (overlay != null) {
+            writeToDisk(overlay, cacheDir, cacheFile);
+        }
+        return overlay;
+    }
+
+    /**
+     * Decodes the picture subsampled to at least the size of the preview. A landscape picture
+     * is scaled to the preview turned sideways and rotated, as the preview is portrait.
+     */
+    private static Bitmap decode(File picture, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(picture.getAbsolutePath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.d(LOG_TAG, "Could not read the size of " + picture);
+            return null;
+        }
+
+        boolean landscape = options.outWidth > options.outHeight;
+        int reqWidth = landscape ? height : width;
+        int reqHeight = landscape ? width : height;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        Bitmap bitmap = BitmapFactory.decodeFile(picture.getAbsolutePath(), options);
+        if (bitmap == null || !landscape) {
+            return bitmap;
+        }
+
+        Matrix matrix = new Matrix();
+        matrix.postScale((float) reqWidth / bitmap.getWidth(), (float) reqHeight / bitmap.getHeight());
+        matrix.postRotate(90);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
+    }
+
+    /**
+     * Returns the largest power of two keeping the decoded picture at least as large as required.
+     */
+    private static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        while (width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private static void writeToDisk(Bitmap overlay, File cacheDir, File cacheFile) {
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            return;
+        }
+        File tmpFile = new File(cacheDir, cacheFile.getName() + ".tmp");
+        FileOutputStream os = null;
+        try {
+            os = new FileOutputStream(tmpFile);
+            overlay.compress(Bitmap.CompressFormat.JPEG, DISK_CACHE_QUALITY, os);
+            os.close();
+            os = null;
+            if (!tmpFile.renameTo(cacheFile)) {
+                tmpFile.delete();
+            }
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Error caching the overlay: " + e.getMessage());
+            tmpFile.delete();
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    Log.d(LOG_TAG, "Exception while closing cache output stream.");
+                }
+            }
+        }
+        CacheHelper.trim(cacheDir, DISK_CACHE_SIZE);
+    }
+}
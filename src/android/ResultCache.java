@@ -0,0 +1,152 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import org.apache.cordova.LOG;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * Keeps the pictures produced from gallery picks, so picking the same picture again with the
+ * same options returns the earlier result instead of decoding and encoding it again.
+ *
+ * Entries are files named after a hash of their key, which holds the identity of the source
+ * (its URI with its size and modification time, or a hash of its content) and the options the
+ * result was produced with. A changed source gets a new key, its old entry ages out. The least
+ * recently used entries are deleted once the cache is over its size.
+ */
+public class ResultCache {
+
+    private static final String LOG_TAG = "ResultCache";
+
+    private final File dir;
+    private final long maxBytes;
+
+    /**
+     * @param dir       The directory of the cache, only used by it
+     * @param maxBytes  The size the entries may take
+     */
+    public ResultCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the result cached under the key.
+     *
+     * @param key       The key of the result
+     * @return the file of the result, or null if it is not cached
+     */
+    public synchronized File get(String key) {
+        File entry = entryFile(key);
+        if (!entry.isFile()) {
+            return null;
+        }
+        // Marks the entry as recently used
+        entry.setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    /**
+     * @return a new file in the cache directory to write a result to, before it is put
+     *         in the cache, or null if the directory can't be created
+     */
+    public File newEntryFile() {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return null;
+        }
+        return new File(dir, UUID.randomUUID().toString() + ".tmp");
+    }
+
+    /**
+     * Caches a result written to a file returned by newEntryFile(). The file is deleted if it
+     * can't be cached.
+     *
+     * @param key       The key of the result
+     * @param result    The file of the result
+     * @return the file of the cached result, or null if it could not be cached
+     */
+    public synchronized File put(String key, File result) {
+        File entry = entryFile(key);
+        if (!result.renameTo(entry)) {
+            LOG.d(LOG_TAG, "Can't move " + result + " into the cache");
+            result.delete();
+            return null;
+        }
+        CacheHelper.trim(dir, maxBytes);
+        return entry;
+    }
+
+    /**
+     * Builds the key of a result.
+     *
+     * @param source    The identity of the source picture
+     * @param options   The options the result is produced with
+     * @return the key
+     */
+    public static String key(String source, Object... options) {
+        StringBuilder key = new StringBuilder(source);
+        for (Object option : options) {
+            key.append('|').append(option);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Hashes the content of a picture, for sources without a size and modification time.
+     * The stream is closed.
+     *
+     * @param is        The content of the picture, may be null
+     * @return the hash of the content, or null if it could not be read
+     */
+    public static String hashContent(InputStream is) {
+        if (is == null) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[64 * 1024];
+            int len;
+            while ((len = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, len);
+            }
+            return CacheHelper.toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } catch (IOException e) {
+            LOG.d(LOG_TAG, "Can't hash the picture: " + e.getMessage());
+            return null;
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                LOG.d(LOG_TAG, "Exception while closing input stream.");
+            }
+        }
+    }
+
+    private File entryFile(String key) {
+        return new File(dir, CacheHelper.hash(key));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Copies pictures between streams.
+ *
+ * Files are copied between their channels with transferTo, so the kernel moves the data
+ * without it going through the Java heap. Other streams are copied through a large buffer.
+ */
+public class StreamHelper {
+
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    private static byte[] copyBuffer;       // Copies streams without a file channel
+
+    /**
+     * Copies a stream from its position. The streams are not closed.
+     *
+     * @param is            The stream to copy
+     * @param os            Where to write it
+     * @param length        The number of bytes to copy, -1 to copy up to the end of the stream
+     * @param wholeFile     Whether the stream reads its file up to the end. The channel of a stream
+     *                      over a part of a file reaches past the part, so it can only be used with
+     *                      a length.
+     * @return the number of bytes copied
+     * @throws IOException
+     */
+    public static long copy(InputStream is, OutputStream os, long length, boolean wholeFile) throws IOException {
+        FileChannel in = is instanceof FileInputStream ? ((FileInputStream) is).getChannel() : null;
+        FileChannel out = os instanceof FileOutputStream ? ((FileOutputStream) os).getChannel() : null;
+        long size = -1;
+        if (in != null && out != null) {
+            if (length >= 0) {
+                size = length;
+            } else if (wholeFile) {
+                size = remaining(in);
+            }
+        }
+        if (size < 0) {
+            return copyStream(is, os, length);
+        }
+
+        long position = in.position();
+        long written = 0;
+        while (written < size) {
+            long count = in.transferTo(position + written, size - written, out);
+            if (count <= 0) {
+                break;
+            }
+            written += count;
+        }
+        // transferTo doesn't move the position of the source
+        in.position(position + written);
+        return written;
+    }
+
+    /**
+     * @return the bytes of the file behind the channel from its position, -1 if it is a pipe
+     *         or a socket
+     */
+    private static long remaining(FileChannel channel) {
+        try {
+            long size = channel.size();
+            return size > 0 ? Math.max(size - channel.position(), 0) : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Copies a stream that has no file channel. Results are processed one at a time, the
+     * buffer is kept for the next copy.
+     */
+    private static synchronized long copyStream(InputStream is, OutputStream os, long length) throws IOException {
+        if (copyBuffer == null) {
+            copyBuffer = new byte[COPY_BUFFER_SIZE];
+        }
+        long written = 0;
+        while (length < 0 || written < length) {
+            int max = length < 0 ? copyBuffer.length : (int) Math.min(copyBuffer.length, length - written);
+            int len = is.read(copyBuffer, 0, max);
+            if (len == -1) {
+                break;
+            }
+            os.write(copyBuffer, 0, len);
+            written += len;
+        }
+        return written;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import org.apache.cordova.LOG;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the files the plugin leaves in its temporary directory within a size and a number of
+ * files. The directory must only hold files of the plugin, any file in it may be deleted.
+ * The least recently used files are evicted first. Files used within the last minute are
+ * never evicted, they may belong to a capture in progress.
+ *
+ * The files found in the directory are indexed when the cache starts, files created afterwards
+ * are added as the plugin creates them. All the work on the directory runs on a background
+ * thread, so it never holds up a capture.
+ */
+public class TempCache {
+
+    private static final String LOG_TAG = "TempCache";
+
+    private static final long MIN_AGE = 60 * 1000;
+
+    public interface Callback {
+        /**
+         * @param deleted   The number of files deleted
+         */
+        void onCleared(int deleted);
+    }
+
+    private final File dir;
+    private final long maxBytes;
+    private final int maxFiles;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // Last access time of each file by path, least recently used first. Only used on the executor.
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    /**
+     * Creates the cache and reconciles it with the files already in the directory.
+     *
+     * @param dir       The temporary directory of the plugin
+     * @param maxBytes  The size the files may take, 0 or less for no limit
+     * @param maxFiles  The number of files that may be kept, 0 or less for no limit
+     */
+    public TempCache(File dir, long maxBytes, int maxFiles) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                reconcile();
+                trim();
+            }
+        });
+    }
+
+    /**
+     * Records that a file of the directory was created or used, and evicts old files if
+     * the cache grew over its budget.
+     *
+     * @param file      The file
+     */
+    public void record(final File file) {
+        final long now = System.currentTimeMillis();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                files.put(file.getAbsolutePath(), now);
+                trim();
+            }
+        });
+    }
+
+    /**
+     * Deletes the files of the directory, but those used within the last minute.
+     *
+     * @param callback  Called on the background thread with the number of files deleted
+     */
+    public void clear(final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Files the plugin didn't record are deleted too
+                reconcile();
+                int deleted = 0;
+                long now = System.currentTimeMillis();
+                Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, Long> entry = it.next();
+                    if (now - entry.getValue() >= MIN_AGE && new File(entry.getKey()).delete()) {
+                        it.remove();
+                        deleted++;
+                    }
+                }
+                callback.onCleared(deleted);
+            }
+        });
+    }
+
+    /**
+     * Stops the background thread, pending work is still done.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Indexes the files found in the directory by last access, so files left over by an earlier
+     * run are evicted first. Directories are left alone.
+     */
+    private void reconcile() {
+        File[] found = dir.listFiles();
+        if (found == null) {
+            return;
+        }
+        final long[] lastAccess = new long[found.length];
+        Integer[] order = new Integer[found.length];
+        for (int i = 0; i < found.length; i++) {
+            lastAccess[i] = lastAccess(found[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long diff = lastAccess[a] - lastAccess[b];
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+
+        LinkedHashMap<String, Long> recorded = new LinkedHashMap<String, Long>(files);
+        files.clear();
+        for (Integer i : order) {
+            if (!found[i].isFile()) {
+                continue;
+            }
+            String path = found[i].getAbsolutePath();
+            Long recordedAccess = recorded.get(path);
+            files.put(path, recordedAccess != null ? Math.max(recordedAccess, lastAccess[i]) : lastAccess[i]);
+        }
+    }
+
+    /**
+     * Evicts the least recently used files until the cache fits its budget.
+     */
+    private void trim() {
+        if (maxBytes <= 0 && maxFiles <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long size = 0;
+        List<String> gone = new ArrayList<String>();
+        for (Map.Entry<String, Long> entry : files.entrySet()) {
+            File file = new File(entry.getKey());
+            if (file.exists()) {
+                size += file.length();
+            } else if (now - entry.getValue() >= MIN_AGE) {
+                // Files are recorded when they are created, before they are written
+                gone.add(entry.getKey());
+            }
+        }
+        for (String path : gone) {
+            files.remove(path);
+        }
+
+        // A file may have been written or read since it was recorded, e.g. a capture file is
+        // recorded when the capture starts and only written once the picture is taken
+        Map<String, Long> used = new LinkedHashMap<String, Long>();
+        Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+        while (it.hasNext() && ((maxBytes > 0 && size > maxBytes) || (maxFiles > 0 && files.size() > maxFiles))) {
+            Map.Entry<String, Long> entry = it.next();
+            if (now - entry.getValue() < MIN_AGE) {
+                // The next files were recorded even more recently
+                break;
+            }
+            File file = new File(entry.getKey());
+            long lastAccess = lastAccess(file);
+            if (now - lastAccess < MIN_AGE) {
+                used.put(entry.getKey(), lastAccess);
+                continue;
+            }
+            long length = file.length();
+            if (file.delete() || !file.exists()) {
+                size -= length;
+                it.remove();
+            }
+        }
+        // Moves the files found in use after the files recorded before them
+        files.putAll(used);
+        if (maxBytes > 0 && size > maxBytes) {
+            LOG.d(LOG_TAG, "Temporary files still take " + size + " bytes, recent files are kept");
+        }
+    }
+
+    /**
+     * @return the time the file was last read or written, as far as the file system tells
+     */
+    private static long lastAccess(File file) {
+        long lastModified = file.lastModified();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                // Access times may be updated lazily or not at all, depending on the mount options
+                return Math.max(lastModified, Os.stat(file.getAbsolutePath()).st_atime * 1000);
+            } catch (ErrnoException e) {
+                LOG.d(LOG_TAG, "Can't stat " + file + ": " + e.getMessage());
+            }
+        }
+        return lastModified;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the capture latency of engines through the CaptureEngine interface, the way
+ * CameraActivity drives them, with fake cameras.
+ */
+public class CaptureLatencyTest {
+
+    private static final byte[] JPEG = { (byte) 0xFF, (byte) 0xD8, 1, 2, 3, (byte) 0xFF, (byte) 0xD9 };
+
+    /**
+     * Latencies of one capture, from the tap on the shutter button.
+     */
+    static class Latency implements CaptureEngine.Listener {
+        final CountDownLatch opened = new CountDownLatch(1);
+        final CountDownLatch previewStarted = new CountDownLatch(1);
+        final CountDownLatch pictureData = new CountDownLatch(1);
+        volatile long tapTime;
+        volatile long shutterNanos = -1;
+        volatile long pictureNanos = -1;
+        volatile byte[] picture;
+        volatile String error;
+
+        public void onCameraOpened() {
+            opened.countDown();
+        }
+
+        public void onPreviewStarted() {
+            previewStarted.countDown();
+        }
+
+        public void onCameraError(String message) {
+            error = message;
+        }
+
+        public void onCameraDisconnected(String message) {
+            error = message;
+        }
+
+        public void onShutter() {
+            shutterNanos = System.nanoTime() - tapTime;
+        }
+
+        public void onPictureData(ByteBuffer jpeg) {
+            pictureNanos = System.nanoTime() - tapTime;
+            picture = new byte[jpeg.remaining()];
+            jpeg.get(picture);
+            pictureData.countDown();
+        }
+
+        long shutterMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(shutterNanos);
+        }
+
+        long pictureMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(pictureNanos);
+        }
+    }
+
+    private static Latency measure(CaptureEngine engine) throws InterruptedException {
+        Latency latency = new Latency();
+        try {
+            engine.open(latency);
+            assertTrue("camera opened", latency.opened.await(5, TimeUnit.SECONDS));
+            engine.choosePreviewSize(1080, 1920);
+            engine.startPreview(null);
+            assertTrue("preview started", latency.previewStarted.await(5, TimeUnit.SECONDS));
+
+            latency.tapTime = System.nanoTime();
+            engine.takePicture();
+            assertTrue("picture taken", latency.pictureData.await(5, TimeUnit.SECONDS));
+        } finally {
+            engine.close();
+        }
+        assertEquals(null, latency.error);
+        return latency;
+    }
+
+    @Test
+    public void shutterFollowsPrecapture() throws InterruptedException {
+        Latency latency = measure(new FakeCaptureEngine(0, 100, 0, JPEG));
+
+        assertTrue("shutter after " + latency.shutterMillis() + " ms", latency.shutterMillis() >= 100);
+    }
+
+    @Test
+    public void pictureDataFollowsShutter() throws InterruptedException {
+        Latency latency = measure(new FakeCaptureEngine(0, 0, 100, JPEG));
+
+        assertTrue("shutter reported", latency.shutterNanos >= 0);
+        assertTrue("picture after " + latency.pictureMillis() + " ms",
+                latency.pictureMillis() - latency.shutterMillis() >= 100);
+        assertArrayEquals(JPEG, latency.picture);
+    }
+
+    @Test
+    public void openingIsNotCaptureLatency() throws InterruptedException {
+        Latency latency = measure(new FakeCaptureEngine(300, 0, 0, JPEG));
+
+        assertTrue("shutter after " + latency.shutterMillis() + " ms", latency.shutterMillis() < 300);
+    }
+
+    @Test
+    public void comparesEngines() throws InterruptedException {
+        // A camera metering before each picture against one capturing from the running preview
+        Latency metering = measure(new FakeCaptureEngine(0, 300, 50, JPEG));
+        Latency zeroShutterLag = measure(new FakeCaptureEngine(0, 0, 50, JPEG));
+
+        assertTrue(zeroShutterLag.shutterMillis() + " ms vs " + metering.shutterMillis() + " ms",
+                zeroShutterLag.shutterMillis() < metering.shutterMillis());
+        assertTrue(zeroShutterLag.pictureMillis() + " ms vs " + metering.pictureMillis() + " ms",
+                zeroShutterLag.pictureMillis() < metering.pictureMillis());
+    }
+}
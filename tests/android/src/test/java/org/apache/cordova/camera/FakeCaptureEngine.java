@@ -0,0 +1,111 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import android.graphics.Point;
+import android.view.SurfaceHolder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A camera simulated behind the CaptureEngine interface, with the delays of a real one.
+ * Events are delivered on the camera thread of the engine, in the order of the contract.
+ */
+public class FakeCaptureEngine implements CaptureEngine {
+
+    private final long openMillis;
+    private final long precaptureMillis;
+    private final long readoutMillis;
+    private final byte[] jpeg;
+
+    private final ExecutorService cameraThread = Executors.newSingleThreadExecutor();
+    private Listener listener;
+
+    /**
+     * @param openMillis        Time to open the camera
+     * @param precaptureMillis  Time to lock the focus and meter the exposure before the capture
+     * @param readoutMillis     Time from the shutter to the JPEG data
+     * @param jpeg              The picture delivered for each capture
+     */
+    public FakeCaptureEngine(long openMillis, long precaptureMillis, long readoutMillis, byte[] jpeg) {
+        this.openMillis = openMillis;
+        this.precaptureMillis = precaptureMillis;
+        this.readoutMillis = readoutMillis;
+        this.jpeg = jpeg;
+    }
+
+    public void setTargetSize(int width, int height) {
+    }
+
+    public void setJpegQuality(int quality) {
+    }
+
+    public void open(Listener listener) {
+        this.listener = listener;
+        cameraThread.execute(new Runnable() {
+            public void run() {
+                sleep(openMillis);
+                FakeCaptureEngine.this.listener.onCameraOpened();
+            }
+        });
+    }
+
+    public Point choosePreviewSize(int maxWidth, int maxHeight) {
+        return new Point(maxWidth, maxHeight);
+    }
+
+    public void startPreview(SurfaceHolder holder) {
+        cameraThread.execute(new Runnable() {
+            public void run() {
+                listener.onPreviewStarted();
+            }
+        });
+    }
+
+    public void stopPreview() {
+    }
+
+    public void setRotation(int degrees) {
+    }
+
+    public void takePicture() {
+        cameraThread.execute(new Runnable() {
+            public void run() {
+                sleep(precaptureMillis);
+                listener.onShutter();
+                sleep(readoutMillis);
+                listener.onPictureData(ByteBuffer.wrap(jpeg));
+            }
+        });
+    }
+
+    public void close() {
+        cameraThread.shutdownNow();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
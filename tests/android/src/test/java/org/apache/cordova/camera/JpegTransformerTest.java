@@ -0,0 +1,131 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JpegTransformerTest {
+
+    /**
+     * Encodes a test pattern as a baseline JPEG, with 2x2 chroma subsampling for colour images.
+     */
+    private static byte[] encode(int width, int height, int type) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | ((x * y) & 0xFF));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, "jpg", out));
+        return out.toByteArray();
+    }
+
+    private static byte[] transform(byte[] jpeg, int transform) throws IOException {
+        JpegTransformer transformer = new JpegTransformer(jpeg);
+        transformer.transform(transform);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transformer.write(out);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(jpeg));
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    @Test
+    public void fourRotationsRestoreTheImage() throws IOException {
+        byte[] original = encode(48, 32, BufferedImage.TYPE_INT_RGB);
+        byte[] rotated = original;
+        for (int i = 0; i < 4; i++) {
+            rotated = transform(rotated, JpegTransformer.ROTATE_90);
+        }
+
+        // Same coefficients, so the same optimal Huffman tables and the same file
+        assertArrayEquals(transform(original, JpegTransformer.NONE), rotated);
+        assertArrayEquals(pixels(decode(original)), pixels(decode(rotated)));
+    }
+
+    @Test
+    public void rotationMovesThePixels() throws IOException {
+        byte[] original = encode(48, 32, BufferedImage.TYPE_BYTE_GRAY);
+        BufferedImage source = decode(original);
+        BufferedImage rotated = decode(transform(original, JpegTransformer.ROTATE_90));
+
+        assertEquals(32, rotated.getWidth());
+        assertEquals(48, rotated.getHeight());
+        for (int y = 0; y < rotated.getHeight(); y++) {
+            for (int x = 0; x < rotated.getWidth(); x++) {
+                // Clockwise, the left column of the source becomes the top row
+                int expected = source.getRaster().getSample(y, source.getHeight() - 1 - x, 0);
+                int actual = rotated.getRaster().getSample(x, y, 0);
+                // The inverse DCT rounds rows and columns in a different order
+                assertTrue("pixel " + x + "," + y + ": " + actual + " instead of " + expected,
+                        Math.abs(expected - actual) <= 2);
+            }
+        }
+    }
+
+    @Test
+    public void partialEdgeBlocksAreDropped() throws IOException {
+        // 40x24 with 16x16 MCUs leaves an 8 pixel partial MCU at the right and at the bottom
+        byte[] original = encode(40, 24, BufferedImage.TYPE_INT_RGB);
+        assertEquals(16, new JpegTransformer(original).getMcuWidth());
+        assertEquals(16, new JpegTransformer(original).getMcuHeight());
+
+        // Kept where the partial MCUs stay at the right and bottom edges
+        assertSize(original, JpegTransformer.NONE, 40, 24);
+        assertSize(original, JpegTransformer.TRANSPOSE, 24, 40);
+        // Dropped where they would move to the left or top edge
+        assertSize(original, JpegTransformer.FLIP_HORIZONTAL, 32, 24);
+        assertSize(original, JpegTransformer.FLIP_VERTICAL, 40, 16);
+        assertSize(original, JpegTransformer.ROTATE_90, 16, 40);
+        assertSize(original, JpegTransformer.ROTATE_180, 32, 16);
+        assertSize(original, JpegTransformer.ROTATE_270, 24, 32);
+        assertSize(original, JpegTransformer.TRANSVERSE, 16, 32);
+    }
+
+    private static void assertSize(byte[] jpeg, int transform, int width, int height) throws IOException {
+        JpegTransformer transformer = new JpegTransformer(jpeg);
+        transformer.transform(transform);
+        assertEquals("width after " + transform, width, transformer.getWidth());
+        assertEquals("height after " + transform, height, transformer.getHeight());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transformer.write(out);
+        BufferedImage image = decode(out.toByteArray());
+        assertEquals("decoded width after " + transform, width, image.getWidth());
+        assertEquals("decoded height after " + transform, height, image.getHeight());
+    }
+}
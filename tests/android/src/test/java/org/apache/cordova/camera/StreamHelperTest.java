@@ -0,0 +1,139 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class StreamHelperTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] content(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private File file(byte[] content) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    /**
+     * Copies a part of a file between file streams, like a part of an asset file descriptor.
+     */
+    private byte[] copyFile(byte[] content, int offset, long length, boolean wholeFile, long expected) throws IOException {
+        File src = file(content);
+        File dest = folder.newFile();
+        FileInputStream is = new FileInputStream(src);
+        FileOutputStream os = new FileOutputStream(dest);
+        try {
+            is.getChannel().position(offset);
+            assertEquals(expected, StreamHelper.copy(is, os, length, wholeFile));
+            // The stream is left after the copied bytes
+            assertEquals(offset + expected, is.getChannel().position());
+        } finally {
+            is.close();
+            os.close();
+        }
+        return Files.readAllBytes(dest.toPath());
+    }
+
+    @Test
+    public void transferStopsAtTheDeclaredLength() throws IOException {
+        byte[] content = content(1000);
+
+        byte[] copy = copyFile(content, 100, 300, false, 300);
+
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 400), copy);
+    }
+
+    @Test
+    public void transferCopiesTheRestOfAWholeFile() throws IOException {
+        byte[] content = content(1000);
+
+        byte[] copy = copyFile(content, 100, -1, true, 900);
+
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 1000), copy);
+    }
+
+    @Test
+    public void transferStopsAtTheEndOfAShortFile() throws IOException {
+        byte[] content = content(100);
+
+        byte[] copy = copyFile(content, 0, 200, false, 100);
+
+        assertArrayEquals(content, copy);
+    }
+
+    @Test
+    public void bufferCopyStopsAtTheDeclaredLength() throws IOException {
+        // Longer than the copy buffer, so it is filled several times
+        byte[] content = content(600 * 1024);
+        int length = 300 * 1024 + 1;
+        ByteArrayInputStream is = new ByteArrayInputStream(content);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        assertEquals(length, StreamHelper.copy(is, os, length, true));
+
+        assertArrayEquals(Arrays.copyOf(content, length), os.toByteArray());
+        assertEquals(content.length - length, is.available());
+    }
+
+    @Test
+    public void bufferCopyCopiesTheWholeStream() throws IOException {
+        byte[] content = content(600 * 1024);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        assertEquals(content.length, StreamHelper.copy(new ByteArrayInputStream(content), os, -1, true));
+
+        assertArrayEquals(content, os.toByteArray());
+    }
+
+    @Test
+    public void fileWithoutAnOutputChannelIsCopiedThroughTheBuffer() throws IOException {
+        byte[] content = content(1000);
+        FileInputStream is = new FileInputStream(file(content));
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try {
+            assertEquals(300, StreamHelper.copy(is, os, 300, false));
+        } finally {
+            is.close();
+        }
+
+        assertArrayEquals(Arrays.copyOf(content, 300), os.toByteArray());
+    }
+}
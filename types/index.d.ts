@@ -25,6 +25,24 @@ interface Camera {
     cleanup(
         onSuccess: () => void,
         onError: (message: string) => void): void;
+    /**
+     * Opens the camera ahead of the next getPicture from the camera, so the preview shows up sooner.
+     * Android only.
+     * @param onSuccess Success callback, that called once the camera is being prepared.
+     * @param onError Error callback, that get an error message.
+     */
+    prepareCamera(
+        onSuccess?: () => void,
+        onError?: (message: string) => void): void;
+    /**
+     * Returns the durations of the stages of the last capture, and the median and 95th
+     * percentile of the latest durations of each stage, in milliseconds. Android only.
+     * @param onSuccess Success callback, that gets the timings.
+     * @param onError Error callback, that get an error message.
+     */
+    getCaptureTimings(
+        onSuccess: (timings: CaptureTimings) => void,
+        onError?: (message: string) => void): void;
     /**
      * Takes a photo using the camera, or retrieves a photo from the device's image gallery.
      * @param cameraSuccess Success callback, that get the image
@@ -53,6 +71,7 @@ interface CameraOptions {
      *      FILE_URI : 1,   Return image file URI
      *      NATIVE_URI : 2  Return image native URI
      *          (e.g., assets-library:// on iOS or content:// on Android)
+     *      ARRAY_BUFFER : 4    Android-only. Return the encoded image bytes as an ArrayBuffer
      */
     destinationType?: number;
     /**
@@ -104,6 +123,33 @@ interface CameraOptions {
     cameraDirection?: number;
     /** iOS-only options that specify popover location in iPad. Defined in CameraPopoverOptions. */
     popoverOptions?: CameraPopoverOptions;
+    /**
+     * Android-only. When returning a DATA_URL, send the Base64 string in chunks of at most
+     * this many characters instead of one large message. Default is 0 (no chunking).
+     */
+    dataChunkSize?: number;
+    /**
+     * Android-only. With dataChunkSize, receive the chunks as they arrive instead of the
+     * reassembled string. The success callback is then called without data.
+     */
+    onDataChunk?: (data: string, index: number, total: number) => void;
+    /**
+     * Android-only. Keep the camera open to take several pictures in a row. The success callback
+     * receives an array with the URIs of all the pictures. Requires FILE_URI or NATIVE_URI.
+     */
+    burst?: boolean;
+    /**
+     * Android-only. Pass the durations of the capture stages, in milliseconds, as a second
+     * argument to the success callback.
+     */
+    captureTimings?: boolean;
+}
+
+interface CaptureTimings {
+    /** Durations of the stages of the last capture, by stage name */
+    last: { [stage: string]: number };
+    /** Number of samples, median and 95th percentile of the latest durations, by stage name */
+    stages: { [stage: string]: { count: number; p50: number; p95: number } };
 }
 
 /**
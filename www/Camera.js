@@ -20,6 +20,7 @@
 */
 
 var argscheck = require('cordova/argscheck');
+var cordova = require('cordova');
 var exec = require('cordova/exec');
 var Camera = require('./Camera');
 // XXX: commented out
@@ -75,6 +76,18 @@ for (var key in Camera) {
  * @property {Boolean} [saveToPhotoAlbum] - Save the image to the photo album on the device after capture.
  * @property {module:CameraPopoverOptions} [popoverOptions] - iOS-only options that specify popover location in iPad.
  * @property {module:Camera.Direction} [cameraDirection=BACK] - Choose the camera to use (front- or back-facing).
+ * @property {number} [dataChunkSize=0] - Android-only. When returning a `DATA_URL`, send the Base64 string from the native side in chunks of at most this many characters instead of one large message. `0` disables chunking.
+ * @property {module:camera.onDataChunk} [onDataChunk] - Android-only. With `dataChunkSize`, receive the chunks as they arrive instead of the reassembled string. The success callback is then called without data once the last chunk was delivered.
+ * @property {Boolean} [burst=false] - Android-only. Keep the camera open to take several pictures in a row, until the user is done. The success callback receives an array with the URIs of all the pictures, in the order they were taken. Requires the `FILE_URI` or `NATIVE_URI` destination type, `allowEdit` is ignored.
+ * @property {Boolean} [captureTimings=false] - Android-only. Pass the timings of the capture stages, in milliseconds, as a second argument to the success callback. See [`camera.getCaptureTimings`]{@link module:camera.getCaptureTimings} for the stages.
+ */
+
+/**
+ * Callback function that receives a part of a chunked `DATA_URL` result.
+ * @callback module:camera.onDataChunk
+ * @param {string} data - The next part of the Base64 string. Its length is a multiple of 4, so every chunk can be decoded on its own.
+ * @param {number} index - Index of the chunk, starting at 0.
+ * @param {number} total - Number of chunks of the picture.
  */
 
 /**
@@ -150,25 +163,84 @@ cameraExport.getPicture = function (successCallback, errorCallback, options) {
     var cameraDirection = getValue(options.cameraDirection, Camera.Direction.BACK);
     var imagePath = getValue(options.imagePath);
     var alpha = getValue(options.alpha);
+    var dataChunkSize = getValue(options.dataChunkSize, 0);
+    var burst = !!options.burst;
 
     var args = [quality, destinationType, sourceType, targetWidth, targetHeight,
                 encodingType, mediaType, allowEdit, correctOrientation,
                 saveToPhotoAlbum, popoverOptions, cameraDirection, imagePath,
-                alpha];
+                alpha, dataChunkSize, burst];
+
+    if (options.captureTimings && cordova.platformId === 'android') {
+        successCallback = addCaptureTimings(successCallback);
+    }
+
+    if (dataChunkSize > 0 && destinationType === Camera.DestinationType.DATA_URL) {
+        successCallback = collectDataChunks(successCallback, options.onDataChunk);
+    }
 
     exec(successCallback, errorCallback, 'Camera', 'takePicture', args);
     // XXX: commented out
     // return new CameraPopoverHandle();
 };
 
+/**
+ * Wraps the success callback of a chunked `DATA_URL` request. Chunks arrive as
+ * `{chunk, total, data}` messages; they are handed to `onDataChunk` or joined
+ * back into the full string. Plain results from platforms that don't chunk
+ * are passed through.
+ * @private
+ */
+function collectDataChunks (successCallback, onDataChunk) {
+    var chunks = [];
+    return function (message) {
+        if (message === null || typeof message !== 'object' || message.chunk === undefined) {
+            successCallback(message);
+            return;
+        }
+        if (onDataChunk) {
+            onDataChunk(message.data, message.chunk, message.total);
+        } else {
+            chunks.push(message.data);
+        }
+        if (message.chunk === message.total - 1) {
+            var imageData = onDataChunk ? undefined : chunks.join('');
+            chunks = [];
+            successCallback(imageData);
+        }
+    };
+}
+
+/**
+ * Wraps the success callback of a request asking for its capture timings. The timings of
+ * the capture are fetched once the result arrived, they are recorded before it is sent.
+ * @private
+ */
+function addCaptureTimings (successCallback) {
+    return function (result) {
+        exec(function (timings) {
+            successCallback(result, timings.last);
+        }, function () {
+            successCallback(result);
+        }, 'Camera', 'getCaptureTimings', []);
+    };
+}
+
 /**
  * Removes intermediate image files that are kept in temporary storage
  * after calling [`camera.getPicture`]{@link module:camera.getPicture}. Applies only when the value of
  * `Camera.sourceType` equals `Camera.PictureSourceType.CAMERA` and the
  * `Camera.destinationType` equals `Camera.DestinationType.FILE_URI`.
  *
+ * On Android, all the pictures left in the plugin's temporary directory are deleted, except
+ * those used within the last minute, which may belong to a capture in progress. The directory
+ * is also kept within the `CameraCacheMaxSize` and `CameraCacheMaxFiles` preferences, so copy
+ * the pictures returned as `FILE_URI` that must be kept. The temporary directory is the
+ * `camera-temp` directory of the app's cache, other files of the app's cache are never deleted.
+ *
  * __Supported Platforms__
  *
+ * - Android
  * - iOS
  *
  * @example
@@ -186,4 +258,48 @@ cameraExport.cleanup = function (successCallback, errorCallback) {
     exec(successCallback, errorCallback, 'Camera', 'cleanup', []);
 };
 
+/**
+ * Opens the camera ahead of the next [`camera.getPicture`]{@link module:camera.getPicture}
+ * with `Camera.PictureSourceType.CAMERA`, so the camera preview shows up sooner. Call it when
+ * the user is likely to take a picture, for example when the screen holding the capture
+ * button is shown. The camera is released if no picture is taken within 30 seconds.
+ * Nothing is prepared when the camera permission has not been granted yet.
+ *
+ * __Supported Platforms__
+ *
+ * - Android
+ *
+ * @example
+ * navigator.camera.prepareCamera();
+ */
+cameraExport.prepareCamera = function (successCallback, errorCallback) {
+    exec(successCallback, errorCallback, 'Camera', 'prepareCamera', []);
+};
+
+/**
+ * Returns how long the stages of the captures taken with [`camera.getPicture`]{@link module:camera.getPicture}
+ * lasted, in milliseconds, measured with a monotonic clock. Each stage is timed from the previous
+ * one reached: `activityCreated`, `cameraOpened`, `firstFrame`, `shutterTap` (includes the time
+ * the user takes to frame the picture), `shutter` (the camera exposed the picture), `pictureTaken`
+ * (the JPEG data arrived), `pictureWritten`, `resultReceived`,
+ * `exifRead`, `gallerySaved` and `resultSent`. `captureLatency` is the time from the shutter tap
+ * to the result.
+ *
+ * The success callback receives an object with the durations of the last capture in `last`, and
+ * the number of samples and the median and 95th percentile of the latest 128 durations of each
+ * stage in `stages`. The durations are kept in memory until the app is closed.
+ *
+ * __Supported Platforms__
+ *
+ * - Android
+ *
+ * @example
+ * navigator.camera.getCaptureTimings(function (timings) {
+ *     console.log('Capture latency p95: ' + timings.stages.captureLatency.p95 + ' ms');
+ * });
+ */
+cameraExport.getCaptureTimings = function (successCallback, errorCallback) {
+    exec(successCallback, errorCallback, 'Camera', 'getCaptureTimings', []);
+};
+
 module.exports = cameraExport;
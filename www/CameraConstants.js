@@ -39,9 +39,11 @@ module.exports = {
         /** Return file uri (content://media/external/images/media/2 for Android) */
         FILE_URI: 1,
         /** Return native uri (eg. asset-library://... for iOS) */
-        NATIVE_URI: 2
+        NATIVE_URI: 2,
         /** Return file and native uri */
-        ALL_URI: 3
+        ALL_URI: 3,
+        /** Android-only. Return the encoded image bytes as an ArrayBuffer, without Base64 encoding in JavaScript */
+        ARRAY_BUFFER: 4
     },
     /**
      * @enum {number}